@@ -49,6 +49,26 @@ public class Constants {
             EXTRA_VALUE = "android.ondevicepersonalization.extra.value";
     public static final String
             EXTRA_RESULT = "android.ondevicepersonalization.extra.result";
+    public static final String
+            EXTRA_BATCH = "android.ondevicepersonalization.extra.batch";
+    public static final String
+            EXTRA_FILE_RESULT = "android.ondevicepersonalization.extra.file_result";
+    public static final String
+            EXTRA_SCAN_PREFIX = "android.ondevicepersonalization.extra.scan_prefix";
+    public static final String
+            EXTRA_SCAN_START_KEY = "android.ondevicepersonalization.extra.scan_start_key";
+    public static final String
+            EXTRA_SCAN_END_KEY = "android.ondevicepersonalization.extra.scan_end_key";
+    public static final String
+            EXTRA_SCAN_LIMIT = "android.ondevicepersonalization.extra.scan_limit";
+    public static final String
+            EXTRA_SCAN_CURSOR = "android.ondevicepersonalization.extra.scan_cursor";
+    public static final String
+            EXTRA_DATA_ACCESS_TIMEOUT_MILLIS =
+                "android.ondevicepersonalization.extra.data_access_timeout_millis";
+
+    // Deadline of blocking data access calls made by personalization services.
+    public static final long DEFAULT_DATA_ACCESS_TIMEOUT_MILLIS = 1000;
 
     // Data Access Service operations.
     public static final int DATA_ACCESS_OP_REMOTE_DATA_LOOKUP = 1;
@@ -58,6 +78,17 @@ public class Constants {
     public static final int DATA_ACCESS_OP_LOCAL_DATA_KEYSET = 5;
     public static final int DATA_ACCESS_OP_LOCAL_DATA_PUT = 6;
     public static final int DATA_ACCESS_OP_LOCAL_DATA_REMOVE = 7;
+    public static final int DATA_ACCESS_OP_REMOTE_DATA_SCAN = 8;
+    public static final int DATA_ACCESS_OP_LOCAL_DATA_SCAN = 9;
+    public static final int DATA_ACCESS_OP_LOCAL_DATA_BATCH = 10;
+
+    // Maximum number of keys returned by one scan request.
+    public static final int MAX_SCAN_LIMIT = 1000;
+
+    // Maximum size of the keys and values of one LOCAL_DATA batch. A batch is sent inline in a
+    // single transaction, so that the service never has to call back into the isolated process
+    // to read it.
+    public static final int MAX_LOCAL_DATA_BATCH_SIZE_BYTES = 256 * 1024;
 
 
     private Constants() {}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.ondevicepersonalization;
+
+import android.annotation.CallbackExecutor;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.ondevicepersonalization.aidl.IDataAccessService;
+import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OutcomeReceiver;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.modules.utils.StringParceledListSlice;
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends requests from the isolated process to the {@link IDataAccessService}, either blocking
+ * until the result arrives or the deadline passes, or delivering the result to an
+ * {@link OutcomeReceiver}. Both kinds of request fail once the deadline passes, and the files of
+ * a result that arrives after that are closed.
+ *
+ * @hide
+ */
+class DataAccessServiceClient {
+    private static final String TAG = "DataAccessServiceClient";
+
+    /** Converts the result {@link Bundle} of a request into the value returned to the caller. */
+    interface ResultParser<T> {
+        T parse(@NonNull Bundle result) throws OnDevicePersonalizationException;
+    }
+
+    private static Handler sTimeoutHandler = null;
+
+    @NonNull private final IDataAccessService mDataAccessService;
+    private final long mTimeoutMillis;
+
+    DataAccessServiceClient(@NonNull IDataAccessService binder, long timeoutMillis) {
+        mDataAccessService = Objects.requireNonNull(binder);
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /** Sends a request and blocks until its result arrives or the deadline passes. */
+    <T> T request(int op, @NonNull Bundle params, @NonNull ResultParser<T> parser)
+            throws OnDevicePersonalizationException {
+        BlockingQueue<Bundle> asyncResult = new ArrayBlockingQueue<>(1);
+        AtomicBoolean abandoned = new AtomicBoolean(false);
+        try {
+            mDataAccessService.onRequest(
+                    op,
+                    params,
+                    new IDataAccessServiceCallback.Stub() {
+                        @Override
+                        public void onSuccess(@NonNull Bundle result) {
+                            asyncResult.add(result);
+                            if (abandoned.get()) {
+                                closeLateResult(asyncResult);
+                            }
+                        }
+
+                        @Override
+                        public void onError(int errorCode) {
+                            asyncResult.add(Bundle.EMPTY);
+                        }
+                    });
+            Bundle result = asyncResult.poll(mTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (null == result) {
+                Log.e(TAG, "Timed out waiting for result of op: " + op);
+                throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+            }
+            return parser.parse(result);
+        } catch (InterruptedException | RemoteException e) {
+            Log.e(TAG, "Failed to retrieve result of op: " + op, e);
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        } finally {
+            // Whichever of this thread and the callback sees the result last closes its files.
+            abandoned.set(true);
+            closeLateResult(asyncResult);
+        }
+    }
+
+    /**
+     * Sends a request without blocking. The result, or the error, is delivered to
+     * {@code receiver} on {@code executor}.
+     */
+    <T> void requestAsync(
+            int op,
+            @NonNull Bundle params,
+            @NonNull ResultParser<T> parser,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<T, Exception> receiver) {
+        AtomicBoolean completed = new AtomicBoolean(false);
+        Runnable timeout = () -> {
+            if (completed.compareAndSet(false, true)) {
+                Log.e(TAG, "Timed out waiting for result of op: " + op);
+                executor.execute(() -> {
+                    receiver.onError(
+                            new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR));
+                });
+            }
+        };
+        getTimeoutHandler().postDelayed(timeout, mTimeoutMillis);
+        try {
+            mDataAccessService.onRequest(
+                    op,
+                    params,
+                    new IDataAccessServiceCallback.Stub() {
+                        @Override
+                        public void onSuccess(@NonNull Bundle result) {
+                            if (!completed.compareAndSet(false, true)) {
+                                closeFiles(result);
+                                return;
+                            }
+                            getTimeoutHandler().removeCallbacks(timeout);
+                            executor.execute(() -> {
+                                T value;
+                                try {
+                                    value = parser.parse(result);
+                                } catch (Exception e) {
+                                    receiver.onError(e);
+                                    return;
+                                }
+                                receiver.onResult(value);
+                            });
+                        }
+
+                        @Override
+                        public void onError(int errorCode) {
+                            if (!completed.compareAndSet(false, true)) {
+                                return;
+                            }
+                            getTimeoutHandler().removeCallbacks(timeout);
+                            executor.execute(() -> {
+                                receiver.onError(new OnDevicePersonalizationException(errorCode));
+                            });
+                        }
+                    });
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to send op: " + op, e);
+            getTimeoutHandler().removeCallbacks(timeout);
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            executor.execute(() -> {
+                receiver.onError(
+                        new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR));
+            });
+        }
+    }
+
+    private static Handler getTimeoutHandler() {
+        synchronized (DataAccessServiceClient.class) {
+            if (sTimeoutHandler == null) {
+                sTimeoutHandler = new Handler(Looper.getMainLooper());
+            }
+            return sTimeoutHandler;
+        }
+    }
+
+    /** Closes the files of a result that arrived after its request was abandoned. */
+    private static void closeLateResult(@NonNull BlockingQueue<Bundle> asyncResult) {
+        Bundle result = asyncResult.poll();
+        if (result != null) {
+            closeFiles(result);
+        }
+    }
+
+    /** Closes the file descriptors of a result that is not going to be parsed. */
+    static void closeFiles(@NonNull Bundle result) {
+        Bundle files = result.getBundle(Constants.EXTRA_FILE_RESULT);
+        if (files == null) {
+            return;
+        }
+        for (String key : files.keySet()) {
+            ParcelFileDescriptor fd = files.getParcelable(key, ParcelFileDescriptor.class);
+            if (fd == null) {
+                continue;
+            }
+            try {
+                fd.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close file descriptor", e);
+            }
+        }
+    }
+
+    /** Parses the result of a lookup, put or remove request. */
+    static HashMap<String, byte[]> parseLookupResult(@NonNull Bundle result)
+            throws OnDevicePersonalizationException {
+        KeyValueParceledListSlice data = result.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class);
+        if (null == data) {
+            Log.e(TAG, "No EXTRA_RESULT was present in bundle");
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        }
+        HashMap<String, byte[]> map = data.toMap();
+        Bundle files = result.getBundle(Constants.EXTRA_FILE_RESULT);
+        if (files != null) {
+            for (String key : files.keySet()) {
+                map.put(key, readFile(files.getParcelable(key, ParcelFileDescriptor.class)));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the file descriptor of a value that was sent as a file in the result of a lookup
+     * request, or null if the value was sent inline or not found.
+     */
+    @Nullable
+    static ParcelFileDescriptor parseFileDescriptor(@NonNull Bundle result, @NonNull String key) {
+        Bundle files = result.getBundle(Constants.EXTRA_FILE_RESULT);
+        return (files != null) ? files.getParcelable(key, ParcelFileDescriptor.class) : null;
+    }
+
+    private static byte[] readFile(@Nullable ParcelFileDescriptor fd)
+            throws OnDevicePersonalizationException {
+        if (null == fd) {
+            Log.e(TAG, "Missing file descriptor in EXTRA_FILE_RESULT");
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ParcelFileDescriptor.AutoCloseInputStream(fd))) {
+            byte[] data = new byte[(int) fd.getStatSize()];
+            in.readFully(data);
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read file", e);
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        }
+    }
+
+    /** Parses the result of a lookup, keeping only the keys that were found. */
+    static HashMap<String, byte[]> parseFoundEntries(@NonNull Bundle result)
+            throws OnDevicePersonalizationException {
+        HashMap<String, byte[]> found = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : parseLookupResult(result).entrySet()) {
+            if (entry.getValue() != null) {
+                found.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return found;
+    }
+
+    /** Creates the parameters of a scan request. */
+    static Bundle createScanParams(@Nullable String prefix, @Nullable String startKey,
+            @Nullable String endKey, int limit, @Nullable String cursor) {
+        Bundle params = new Bundle();
+        params.putString(Constants.EXTRA_SCAN_PREFIX, prefix);
+        params.putString(Constants.EXTRA_SCAN_START_KEY, startKey);
+        params.putString(Constants.EXTRA_SCAN_END_KEY, endKey);
+        params.putInt(Constants.EXTRA_SCAN_LIMIT, limit);
+        params.putString(Constants.EXTRA_SCAN_CURSOR, cursor);
+        return params;
+    }
+
+    /** Parses the result of a scan request. */
+    static KeyScanResult parseScanResult(@NonNull Bundle result)
+            throws OnDevicePersonalizationException {
+        String[] keys = result.getStringArray(Constants.EXTRA_RESULT);
+        if (null == keys) {
+            Log.e(TAG, "No EXTRA_RESULT was present in bundle");
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        }
+        return new KeyScanResult(
+                Arrays.asList(keys), result.getString(Constants.EXTRA_SCAN_CURSOR));
+    }
+
+    /** Parses the result of a keySet request. */
+    static HashSet<String> parseKeySetResult(@NonNull Bundle result)
+            throws OnDevicePersonalizationException {
+        StringParceledListSlice keys =
+                result.getParcelable(Constants.EXTRA_RESULT, StringParceledListSlice.class);
+        if (null == keys) {
+            Log.e(TAG, "No EXTRA_RESULT was present in bundle");
+            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        }
+        return new HashSet<>(keys.getList());
+    }
+}
@@ -16,20 +16,31 @@
 
 package android.ondevicepersonalization;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.OutcomeReceiver;
+import android.os.ParcelFileDescriptor;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Data Access Object for the REMOTE_DATA table. The REMOTE_DATA table is a immutable
  * data store that contains data that has been downloaded by the ODP platform from
  * the vendor endpoint that is declared in the package manifest.
  *
+ * <p>The blocking methods wait for the ODP service until a deadline passes. The asynchronous
+ * methods return right away, so that many lookups can be in flight at the same time.
+ *
  * @hide
  */
 public interface ImmutableMap {
     /**
-     * Looks up a key in the REMOTE_DATA table.
+     * Looks up a key in the REMOTE_DATA table. A value stored as a file is copied into memory;
+     * use {@link #getFileDescriptor(String)} to read large values without copying them.
      *
      * @param key The key to look up.
      * @return the value to which the specified key is mapped,
@@ -37,10 +48,94 @@ public interface ImmutableMap {
      */
     byte[] get(@NonNull String key) throws OnDevicePersonalizationException;
 
+    /**
+     * Looks up a set of keys in the REMOTE_DATA table with a single request. As with
+     * {@link #get(String)}, values stored as files are copied into memory.
+     *
+     * @param keys The keys to look up.
+     * @return a map of the keys that were found to their values. Keys that have no mapping
+     * are not included.
+     */
+    @NonNull Map<String, byte[]> getAll(@NonNull Collection<String> keys)
+            throws OnDevicePersonalizationException;
+
     /**
      * Returns a Set view of the keys contained in the REMOTE_DATA table.
      *
      * @return a Set view of the keys contained in the REMOTE_DATA table.
      */
     Set<String> keySet() throws OnDevicePersonalizationException;
+
+    /**
+     * Opens a large value in the REMOTE_DATA table as a read-only file, which can be memory
+     * mapped instead of being copied into the process. Values that are too small to be stored
+     * as files are only returned by {@link #get(String)}.
+     *
+     * @param key The key to look up.
+     * @return a read-only file descriptor of the value, or null if there is no mapping for the
+     * key or the value is not stored as a file. The caller must close it.
+     */
+    @Nullable ParcelFileDescriptor getFileDescriptor(@NonNull String key)
+            throws OnDevicePersonalizationException;
+
+    /**
+     * Returns a page of the keys in the REMOTE_DATA table within a range, in ascending order.
+     *
+     * @param startKey The lowest key to return, or null to start at the first key.
+     * @param endKey The key to stop before, or null to scan to the last key.
+     * @param limit The maximum number of keys to return, at most
+     * {@link Constants#MAX_SCAN_LIMIT}.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     */
+    @NonNull KeyScanResult scanKeys(
+            @Nullable String startKey, @Nullable String endKey, int limit, @Nullable String cursor)
+            throws OnDevicePersonalizationException;
+
+    /**
+     * Returns a page of the keys in the REMOTE_DATA table that start with a prefix, in
+     * ascending order.
+     *
+     * @param prefix The prefix of the keys to return.
+     * @param limit The maximum number of keys to return, at most
+     * {@link Constants#MAX_SCAN_LIMIT}.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     */
+    @NonNull KeyScanResult scanKeysWithPrefix(
+            @NonNull String prefix, int limit, @Nullable String cursor)
+            throws OnDevicePersonalizationException;
+
+    /**
+     * Looks up a key in the REMOTE_DATA table without blocking.
+     *
+     * @param key The key to look up.
+     * @param executor The executor on which to call the receiver.
+     * @param receiver Receives the value to which the specified key is mapped, or null if there
+     * is no mapping for the key.
+     */
+    void getAsync(
+            @NonNull String key,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver);
+
+    /**
+     * Looks up a set of keys in the REMOTE_DATA table with a single request, without blocking.
+     *
+     * @param keys The keys to look up.
+     * @param executor The executor on which to call the receiver.
+     * @param receiver Receives a map of the keys that were found to their values.
+     */
+    void getAllAsync(
+            @NonNull Collection<String> keys,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Map<String, byte[]>, Exception> receiver);
+
+    /**
+     * Returns the keys contained in the REMOTE_DATA table without blocking.
+     *
+     * @param executor The executor on which to call the receiver.
+     * @param receiver Receives the keys contained in the REMOTE_DATA table.
+     */
+    void keySetAsync(
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Set<String>, Exception> receiver);
 }
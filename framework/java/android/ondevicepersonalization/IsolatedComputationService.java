@@ -59,6 +59,11 @@ public abstract class IsolatedComputationService extends Service {
 
     // TODO(b/228200518): Add onBidRequest()/onBidResponse() methods.
 
+    private static long getDataAccessTimeoutMillis(@NonNull Bundle params) {
+        return params.getLong(Constants.EXTRA_DATA_ACCESS_TIMEOUT_MILLIS,
+                Constants.DEFAULT_DATA_ACCESS_TIMEOUT_MILLIS);
+    }
+
     class ServiceBinder extends IIsolatedComputationService.Stub {
         @Override public void onRequest(
                 int operationCode,
@@ -78,7 +83,8 @@ public abstract class IsolatedComputationService extends Service {
                             params.getBinder(Constants.EXTRA_DATA_ACCESS_SERVICE_BINDER)));
                 Objects.requireNonNull(binder);
                 OnDevicePersonalizationContext odpContext =
-                        new OnDevicePersonalizationContextImpl(binder);
+                        new OnDevicePersonalizationContextImpl(
+                                binder, getDataAccessTimeoutMillis(params));
                 mHandler.onExecute(
                         input, odpContext, new WrappedCallback<ExecuteOutput>(callback));
 
@@ -108,7 +114,8 @@ public abstract class IsolatedComputationService extends Service {
                             params.getBinder(Constants.EXTRA_DATA_ACCESS_SERVICE_BINDER)));
                 Objects.requireNonNull(binder);
                 OnDevicePersonalizationContext odpContext =
-                        new OnDevicePersonalizationContextImpl(binder);
+                        new OnDevicePersonalizationContextImpl(
+                                binder, getDataAccessTimeoutMillis(params));
                 mHandler.onDownload(
                         downloadInput, odpContext, new WrappedCallback<DownloadOutput>(callback));
 
@@ -123,7 +130,8 @@ public abstract class IsolatedComputationService extends Service {
                             params.getBinder(Constants.EXTRA_DATA_ACCESS_SERVICE_BINDER)));
                 Objects.requireNonNull(binder);
                 OnDevicePersonalizationContext odpContext =
-                        new OnDevicePersonalizationContextImpl(binder);
+                        new OnDevicePersonalizationContextImpl(
+                                binder, getDataAccessTimeoutMillis(params));
                 mHandler.onRender(
                         input, odpContext, new WrappedCallback<RenderOutput>(callback));
 
@@ -135,7 +143,8 @@ public abstract class IsolatedComputationService extends Service {
                         IDataAccessService.Stub.asInterface(Objects.requireNonNull(
                             params.getBinder(Constants.EXTRA_DATA_ACCESS_SERVICE_BINDER)));
                 OnDevicePersonalizationContext odpContext =
-                        new OnDevicePersonalizationContextImpl(binder);
+                        new OnDevicePersonalizationContextImpl(
+                                binder, getDataAccessTimeoutMillis(params));
                 mHandler.onEvent(
                         input, odpContext, new WrappedCallback<EventOutput>(callback));
 
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.ondevicepersonalization;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One page of keys returned by a key scan of REMOTE_DATA or LOCAL_DATA.
+ *
+ * @hide
+ */
+public final class KeyScanResult {
+    @NonNull private final List<String> mKeys;
+    @Nullable private final String mNextCursor;
+
+    public KeyScanResult(@NonNull List<String> keys, @Nullable String nextCursor) {
+        mKeys = Objects.requireNonNull(keys);
+        mNextCursor = nextCursor;
+    }
+
+    /** Returns the keys of this page in ascending order. */
+    @NonNull public List<String> getKeys() {
+        return mKeys;
+    }
+
+    /**
+     * Returns the cursor to pass to the next scan to continue after this page, or null if this
+     * is the last page.
+     */
+    @Nullable public String getNextCursor() {
+        return mNextCursor;
+    }
+}
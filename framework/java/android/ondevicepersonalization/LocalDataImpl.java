@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2023 The Android Open Source Project
+ * Copyright (C) 2022 The Android Open Source Project
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,110 +16,234 @@
 
 package android.ondevicepersonalization;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.ondevicepersonalization.aidl.IDataAccessService;
-import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
 import android.os.Bundle;
-import android.os.RemoteException;
-import android.util.Log;
+import android.os.OutcomeReceiver;
+import android.os.ParcelFileDescriptor;
 
+
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 
 /** @hide */
 public class LocalDataImpl implements MutableMap {
-    private static final String TAG = "LocalDataImpl";
     @NonNull
-    IDataAccessService mDataAccessService;
-
-    private static final long ASYNC_TIMEOUT_MS = 1000;
+    private final DataAccessServiceClient mClient;
 
     public LocalDataImpl(@NonNull IDataAccessService binder) {
-        mDataAccessService = Objects.requireNonNull(binder);
+        this(binder, Constants.DEFAULT_DATA_ACCESS_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis How long the blocking methods wait for a result.
+     */
+    public LocalDataImpl(@NonNull IDataAccessService binder, long timeoutMillis) {
+        mClient = new DataAccessServiceClient(binder, timeoutMillis);
     }
 
     @Override
     public byte[] get(@NonNull String key) throws OnDevicePersonalizationException {
-        Bundle params = new Bundle();
-        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, new String[]{key});
-        return handleLookupRequest(Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP, key, params);
+        return handleLookupRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP, key, createParams(key));
+    }
+
+    @Override
+    @NonNull
+    public Map<String, byte[]> getAll(@NonNull Collection<String> keys)
+            throws OnDevicePersonalizationException {
+        if (keys.isEmpty()) {
+            return new HashMap<>();
+        }
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP,
+                createParams(keys.toArray(new String[0])),
+                DataAccessServiceClient::parseFoundEntries);
     }
 
     @Override
     public byte[] put(@NonNull String key, byte[] value) throws OnDevicePersonalizationException {
-        Bundle params = new Bundle();
-        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, new String[]{key});
-        params.putByteArray(Constants.EXTRA_VALUE, value);
-        return handleLookupRequest(Constants.DATA_ACCESS_OP_LOCAL_DATA_PUT, key, params);
+        return handleLookupRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_PUT, key, createPutParams(key, value));
     }
 
     @Override
     public byte[] remove(@NonNull String key) throws OnDevicePersonalizationException {
-        Bundle params = new Bundle();
-        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, new String[]{key});
-        return handleLookupRequest(Constants.DATA_ACCESS_OP_LOCAL_DATA_REMOVE, key, params);
+        return handleLookupRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_REMOVE, key, createParams(key));
     }
 
-    private byte[] handleLookupRequest(int op, String key, Bundle params)
+    @Override
+    @NonNull
+    public Map<String, byte[]> putAll(@NonNull Map<String, byte[]> values)
             throws OnDevicePersonalizationException {
-        Bundle result = handleAsyncRequest(op, params);
-        if (null == result) {
-            Log.e(TAG, "Timed out waiting for result of lookup for op: " + op);
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            Objects.requireNonNull(entry.getKey());
+            Objects.requireNonNull(entry.getValue());
         }
-        HashMap<String, byte[]> data = result.getSerializable(
-                Constants.EXTRA_RESULT, HashMap.class);
-        if (null == data) {
-            Log.e(TAG, "No EXTRA_RESULT was present in bundle");
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        return handleBatchRequest(values);
+    }
+
+    @Override
+    @NonNull
+    public Map<String, byte[]> removeAll(@NonNull Collection<String> keys)
+            throws OnDevicePersonalizationException {
+        // A key mapped to null is removed by the batch.
+        HashMap<String, byte[]> changes = new HashMap<>();
+        for (String key : keys) {
+            changes.put(Objects.requireNonNull(key), null);
         }
-        return data.get(key);
+        return handleBatchRequest(changes);
     }
 
     @Override
     public Set<String> keySet() throws OnDevicePersonalizationException {
-        Bundle result = handleAsyncRequest(Constants.DATA_ACCESS_OP_LOCAL_DATA_KEYSET,
-                Bundle.EMPTY);
-        if (null == result) {
-            Log.e(TAG, "Timed out waiting for result of keySet");
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_KEYSET,
+                Bundle.EMPTY,
+                DataAccessServiceClient::parseKeySetResult);
+    }
+
+    @Override
+    @Nullable
+    public ParcelFileDescriptor getFileDescriptor(@NonNull String key) {
+        // LOCAL_DATA values are bounded by the batch size and are always stored in the table.
+        return null;
+    }
+
+    @Override
+    @NonNull
+    public KeyScanResult scanKeys(@Nullable String startKey, @Nullable String endKey,
+            int limit, @Nullable String cursor) throws OnDevicePersonalizationException {
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_SCAN,
+                DataAccessServiceClient.createScanParams(null, startKey, endKey, limit, cursor),
+                DataAccessServiceClient::parseScanResult);
+    }
+
+    @Override
+    @NonNull
+    public KeyScanResult scanKeysWithPrefix(@NonNull String prefix, int limit,
+            @Nullable String cursor) throws OnDevicePersonalizationException {
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_SCAN,
+                DataAccessServiceClient.createScanParams(prefix, null, null, limit, cursor),
+                DataAccessServiceClient::parseScanResult);
+    }
+
+    @Override
+    public void getAsync(
+            @NonNull String key,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver) {
+        handleLookupRequestAsync(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP, key, createParams(key),
+                executor, receiver);
+    }
+
+    @Override
+    public void getAllAsync(
+            @NonNull Collection<String> keys,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Map<String, byte[]>, Exception> receiver) {
+        mClient.requestAsync(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP,
+                createParams(keys.toArray(new String[0])),
+                DataAccessServiceClient::parseFoundEntries,
+                executor,
+                receiver);
+    }
+
+    @Override
+    public void putAsync(
+            @NonNull String key,
+            @NonNull byte[] value,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver) {
+        handleLookupRequestAsync(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_PUT, key, createPutParams(key, value),
+                executor, receiver);
+    }
+
+    @Override
+    public void removeAsync(
+            @NonNull String key,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver) {
+        handleLookupRequestAsync(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_REMOVE, key, createParams(key),
+                executor, receiver);
+    }
+
+    @Override
+    public void keySetAsync(
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Set<String>, Exception> receiver) {
+        mClient.requestAsync(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_KEYSET,
+                Bundle.EMPTY,
+                DataAccessServiceClient::parseKeySetResult,
+                executor,
+                receiver);
+    }
+
+    private Map<String, byte[]> handleBatchRequest(Map<String, byte[]> changes)
+            throws OnDevicePersonalizationException {
+        if (changes.isEmpty()) {
+            return new HashMap<>();
+        }
+        // A key mapped to null is kept as a null byte array.
+        Bundle batch = new Bundle();
+        long sizeBytes = 0;
+        for (Map.Entry<String, byte[]> entry : changes.entrySet()) {
+            sizeBytes += 2L * entry.getKey().length();
+            if (entry.getValue() != null) {
+                sizeBytes += entry.getValue().length;
+            }
+            batch.putByteArray(entry.getKey(), entry.getValue());
         }
-        HashSet<String> resultSet =
-                result.getSerializable(Constants.EXTRA_RESULT, HashSet.class);
-        if (null == resultSet) {
-            Log.e(TAG, "No EXTRA_RESULT was present in bundle");
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        if (sizeBytes > Constants.MAX_LOCAL_DATA_BATCH_SIZE_BYTES) {
+            throw new IllegalArgumentException("Batch of " + sizeBytes + " bytes exceeds "
+                    + Constants.MAX_LOCAL_DATA_BATCH_SIZE_BYTES + " bytes");
         }
-        return resultSet;
+        Bundle params = new Bundle();
+        params.putBundle(Constants.EXTRA_BATCH, batch);
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_BATCH,
+                params,
+                DataAccessServiceClient::parseLookupResult);
     }
 
-    private Bundle handleAsyncRequest(int op, Bundle params)
+    private byte[] handleLookupRequest(int op, String key, Bundle params)
             throws OnDevicePersonalizationException {
-        try {
-            BlockingQueue<Bundle> asyncResult = new ArrayBlockingQueue<>(1);
-            mDataAccessService.onRequest(
-                    op,
-                    params,
-                    new IDataAccessServiceCallback.Stub() {
-                        @Override
-                        public void onSuccess(@NonNull Bundle result) {
-                            asyncResult.add(result);
-                        }
-
-                        @Override
-                        public void onError(int errorCode) {
-                            asyncResult.add(Bundle.EMPTY);
-                        }
-                    });
-            return asyncResult.poll(ASYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException | RemoteException e) {
-            Log.e(TAG, "Failed to retrieve result from localData", e);
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-        }
+        return mClient.request(op, params, DataAccessServiceClient::parseLookupResult).get(key);
+    }
+
+    private void handleLookupRequestAsync(int op, String key, Bundle params,
+            Executor executor, OutcomeReceiver<byte[], Exception> receiver) {
+        mClient.requestAsync(
+                op,
+                params,
+                result -> DataAccessServiceClient.parseLookupResult(result).get(key),
+                executor,
+                receiver);
+    }
+
+    private static Bundle createParams(String... keys) {
+        Bundle params = new Bundle();
+        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, keys);
+        return params;
+    }
+
+    private static Bundle createPutParams(String key, byte[] value) {
+        Bundle params = createParams(key);
+        params.putByteArray(Constants.EXTRA_VALUE, value);
+        return params;
     }
 }
@@ -16,12 +16,22 @@
 
 package android.ondevicepersonalization;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
+import android.os.OutcomeReceiver;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Data Access Object for the LOCAL_DATA table. The LOCAL_DATA table is a mutable
  * data store that contains data that has been stored locally by the vendor.
  *
+ * <p>LOCAL_DATA values are written in batches of at most 256 KB and are always kept in the
+ * table, so {@link #getFileDescriptor(String)} returns null for every key. Use
+ * {@link #get(String)} to read them.
+ *
  * @hide
  */
 public interface MutableMap extends ImmutableMap {
@@ -44,4 +54,56 @@ public interface MutableMap extends ImmutableMap {
      * @return the previous value associated with key, or null if there was no mapping for key.
      */
     byte[] remove(String key) throws OnDevicePersonalizationException;
+
+    /**
+     * Associates each of the specified values with its key in LOCAL_DATA. All values are written
+     * in a single transaction, so either all of them are stored or none.
+     *
+     * @param values map of the keys to the values to be associated with them
+     *
+     * @return a map of each key to its previous value, or to null if there was no mapping for it.
+     * @throws IllegalArgumentException if the keys and values together exceed 256 KB.
+     */
+    @NonNull Map<String, byte[]> putAll(@NonNull Map<String, byte[]> values)
+            throws OnDevicePersonalizationException;
+
+    /**
+     * Removes the mappings for the specified keys from LOCAL_DATA if present. All keys are
+     * removed in a single transaction.
+     *
+     * @param keys keys whose mappings are to be removed from the LOCAL_DATA
+     *
+     * @return a map of each key to its previous value, or to null if there was no mapping for it.
+     * @throws IllegalArgumentException if the keys together exceed 256 KB.
+     */
+    @NonNull Map<String, byte[]> removeAll(@NonNull Collection<String> keys)
+            throws OnDevicePersonalizationException;
+
+    /**
+     * Associates the specified value with the specified key in LOCAL_DATA without blocking.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @param executor The executor on which to call the receiver.
+     * @param receiver Receives the previous value associated with key, or null if there was no
+     * mapping for key.
+     */
+    void putAsync(
+            @NonNull String key,
+            @NonNull byte[] value,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver);
+
+    /**
+     * Removes the mapping for the specified key from LOCAL_DATA if present, without blocking.
+     *
+     * @param key key whose mapping is to be removed from the LOCAL_DATA
+     * @param executor The executor on which to call the receiver.
+     * @param receiver Receives the previous value associated with key, or null if there was no
+     * mapping for key.
+     */
+    void removeAsync(
+            @NonNull String key,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver);
 }
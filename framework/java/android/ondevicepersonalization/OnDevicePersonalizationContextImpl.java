@@ -39,9 +39,15 @@ public class OnDevicePersonalizationContextImpl implements OnDevicePersonalizati
 
     /** @hide */
     public OnDevicePersonalizationContextImpl(@NonNull IDataAccessService binder) {
+        this(binder, Constants.DEFAULT_DATA_ACCESS_TIMEOUT_MILLIS);
+    }
+
+    /** @hide */
+    public OnDevicePersonalizationContextImpl(
+            @NonNull IDataAccessService binder, long dataAccessTimeoutMillis) {
         mDataAccessService = Objects.requireNonNull(binder);
-        mRemoteData = new RemoteDataImpl(binder);
-        mLocalData = new LocalDataImpl(binder);
+        mRemoteData = new RemoteDataImpl(binder, dataAccessTimeoutMillis);
+        mLocalData = new LocalDataImpl(binder, dataAccessTimeoutMillis);
     }
 
     @Override @NonNull public ImmutableMap getRemoteData() {
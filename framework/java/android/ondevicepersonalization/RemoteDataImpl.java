@@ -16,104 +16,136 @@
 
 package android.ondevicepersonalization;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.ondevicepersonalization.aidl.IDataAccessService;
-import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
 import android.os.Bundle;
-import android.os.RemoteException;
-import android.util.Log;
+import android.os.OutcomeReceiver;
+import android.os.ParcelFileDescriptor;
 
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 
 /** @hide */
 public class RemoteDataImpl implements ImmutableMap {
-    private static final String TAG = "RemoteDataImpl";
     @NonNull
-    IDataAccessService mDataAccessService;
-
-    private static final long ASYNC_TIMEOUT_MS = 1000;
+    private final DataAccessServiceClient mClient;
 
     public RemoteDataImpl(@NonNull IDataAccessService binder) {
-        mDataAccessService = Objects.requireNonNull(binder);
+        this(binder, Constants.DEFAULT_DATA_ACCESS_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis How long the blocking methods wait for a result.
+     */
+    public RemoteDataImpl(@NonNull IDataAccessService binder, long timeoutMillis) {
+        mClient = new DataAccessServiceClient(binder, timeoutMillis);
     }
 
     @Override
     public byte[] get(@NonNull String key) throws OnDevicePersonalizationException {
-        try {
-            BlockingQueue<Bundle> asyncResult = new ArrayBlockingQueue<>(1);
-            Bundle params = new Bundle();
-            params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, new String[]{key});
-            mDataAccessService.onRequest(
-                    Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
-                    params,
-                    new IDataAccessServiceCallback.Stub() {
-                        @Override
-                        public void onSuccess(@NonNull Bundle result) {
-                            asyncResult.add(result);
-                        }
-
-                        @Override
-                        public void onError(int errorCode) {
-                            asyncResult.add(Bundle.EMPTY);
-                        }
-                    });
-            Bundle result = asyncResult.poll(ASYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            if (null == result) {
-                Log.e(TAG, "Timed out waiting for result of remoteData lookup");
-                throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-            }
-            HashMap<String, byte[]> data = result.getSerializable(
-                            Constants.EXTRA_RESULT, HashMap.class);
-            if (null == data) {
-                Log.e(TAG, "No EXTRA_RESULT was present in bundle");
-                throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-            }
-            return data.get(key);
-        } catch (InterruptedException | RemoteException e) {
-            Log.e(TAG, "Failed to retrieve key from remoteData", e);
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                createLookupParams(key),
+                DataAccessServiceClient::parseLookupResult).get(key);
+    }
+
+    @Override
+    @NonNull
+    public Map<String, byte[]> getAll(@NonNull Collection<String> keys)
+            throws OnDevicePersonalizationException {
+        if (keys.isEmpty()) {
+            return new HashMap<>();
         }
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                createLookupParams(keys.toArray(new String[0])),
+                DataAccessServiceClient::parseFoundEntries);
     }
 
     @Override
     public Set<String> keySet() throws OnDevicePersonalizationException {
-        try {
-            BlockingQueue<Bundle> asyncResult = new ArrayBlockingQueue<>(1);
-            mDataAccessService.onRequest(
-                    Constants.DATA_ACCESS_OP_REMOTE_DATA_KEYSET,
-                    Bundle.EMPTY,
-                    new IDataAccessServiceCallback.Stub() {
-                        @Override
-                        public void onSuccess(@NonNull Bundle result) {
-                            asyncResult.add(result);
-                        }
-
-                        @Override
-                        public void onError(int errorCode) {
-                            asyncResult.add(Bundle.EMPTY);
-                        }
-                    });
-            Bundle result = asyncResult.poll(ASYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            if (null == result) {
-                Log.e(TAG, "Timed out waiting for result of remoteData keySet");
-                throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-            }
-            HashSet<String> resultSet =
-                    result.getSerializable(Constants.EXTRA_RESULT, HashSet.class);
-            if (null == resultSet) {
-                Log.e(TAG, "No EXTRA_RESULT was present in bundle");
-                throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-            }
-            return resultSet;
-        } catch (InterruptedException | RemoteException e) {
-            Log.e(TAG, "Failed to retrieve keySet from remoteData", e);
-            throw new OnDevicePersonalizationException(Constants.STATUS_INTERNAL_ERROR);
-        }
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_KEYSET,
+                Bundle.EMPTY,
+                DataAccessServiceClient::parseKeySetResult);
+    }
+
+    @Override
+    @Nullable
+    public ParcelFileDescriptor getFileDescriptor(@NonNull String key)
+            throws OnDevicePersonalizationException {
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                createLookupParams(key),
+                result -> DataAccessServiceClient.parseFileDescriptor(result, key));
+    }
+
+    @Override
+    @NonNull
+    public KeyScanResult scanKeys(@Nullable String startKey, @Nullable String endKey,
+            int limit, @Nullable String cursor) throws OnDevicePersonalizationException {
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN,
+                DataAccessServiceClient.createScanParams(null, startKey, endKey, limit, cursor),
+                DataAccessServiceClient::parseScanResult);
+    }
+
+    @Override
+    @NonNull
+    public KeyScanResult scanKeysWithPrefix(@NonNull String prefix, int limit,
+            @Nullable String cursor) throws OnDevicePersonalizationException {
+        return mClient.request(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN,
+                DataAccessServiceClient.createScanParams(prefix, null, null, limit, cursor),
+                DataAccessServiceClient::parseScanResult);
+    }
+
+    @Override
+    public void getAsync(
+            @NonNull String key,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<byte[], Exception> receiver) {
+        mClient.requestAsync(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                createLookupParams(key),
+                result -> DataAccessServiceClient.parseLookupResult(result).get(key),
+                executor,
+                receiver);
+    }
+
+    @Override
+    public void getAllAsync(
+            @NonNull Collection<String> keys,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Map<String, byte[]>, Exception> receiver) {
+        mClient.requestAsync(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                createLookupParams(keys.toArray(new String[0])),
+                DataAccessServiceClient::parseFoundEntries,
+                executor,
+                receiver);
+    }
+
+    @Override
+    public void keySetAsync(
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull OutcomeReceiver<Set<String>, Exception> receiver) {
+        mClient.requestAsync(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_KEYSET,
+                Bundle.EMPTY,
+                DataAccessServiceClient::parseKeySetResult,
+                executor,
+                receiver);
+    }
+
+    private static Bundle createLookupParams(@NonNull String... keys) {
+        Bundle params = new Bundle();
+        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, keys);
+        return params;
     }
 }
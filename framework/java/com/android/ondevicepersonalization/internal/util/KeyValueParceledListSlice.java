@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.internal.util;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Parcel;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transfer a large map of String keys to byte[] values across an IPC. Each entry is written as
+ * a length-prefixed key and value, and a null value is kept as null. Splits into multiple
+ * transactions if needed.
+ *
+ * @hide
+ */
+public final class KeyValueParceledListSlice
+        extends BaseOdpParceledListSlice<AbstractMap.SimpleImmutableEntry<String, byte[]>> {
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static final Creator<AbstractMap.SimpleImmutableEntry<String, byte[]>> ENTRY_CREATOR =
+            new Creator<AbstractMap.SimpleImmutableEntry<String, byte[]>>() {
+                public AbstractMap.SimpleImmutableEntry<String, byte[]> createFromParcel(
+                        Parcel in) {
+                    String key = in.readString();
+                    byte[] value = in.createByteArray();
+                    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                }
+
+                public AbstractMap.SimpleImmutableEntry<String, byte[]>[] newArray(int size) {
+                    return new AbstractMap.SimpleImmutableEntry[size];
+                }
+            };
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public static final ClassLoaderCreator<KeyValueParceledListSlice> CREATOR =
+            new ClassLoaderCreator<KeyValueParceledListSlice>() {
+                public KeyValueParceledListSlice createFromParcel(Parcel in) {
+                    return new KeyValueParceledListSlice(in, null);
+                }
+
+                @Override
+                public KeyValueParceledListSlice createFromParcel(Parcel in, ClassLoader loader) {
+                    return new KeyValueParceledListSlice(in, loader);
+                }
+
+                @Override
+                public KeyValueParceledListSlice[] newArray(int size) {
+                    return new KeyValueParceledListSlice[size];
+                }
+            };
+
+    public KeyValueParceledListSlice(@NonNull Map<String, byte[]> map) {
+        super(toEntries(map));
+    }
+
+    private KeyValueParceledListSlice(@Nullable Parcel in, @Nullable ClassLoader loader) {
+        super(in, loader);
+    }
+
+    private static List<AbstractMap.SimpleImmutableEntry<String, byte[]>> toEntries(
+            @NonNull Map<String, byte[]> map) {
+        List<AbstractMap.SimpleImmutableEntry<String, byte[]>> entries =
+                new ArrayList<>(map.size());
+        for (Map.Entry<String, byte[]> entry : map.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the entries as a map. Keys that were sent with a null value map to null.
+     */
+    @NonNull
+    public HashMap<String, byte[]> toMap() {
+        HashMap<String, byte[]> map = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : getList()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeElement(@NonNull AbstractMap.SimpleImmutableEntry<String, byte[]> entry,
+            @NonNull Parcel reply, int callFlags) {
+        reply.writeString(entry.getKey());
+        reply.writeByteArray(entry.getValue());
+    }
+
+    @Override
+    public void writeParcelableCreator(
+            @Nullable AbstractMap.SimpleImmutableEntry<String, byte[]> entry,
+            @Nullable Parcel dest) {
+        return;
+    }
+
+    @Override
+    @Nullable
+    public Creator<?> readParcelableCreator(@Nullable Parcel from, @Nullable ClassLoader loader) {
+        return ENTRY_CREATOR;
+    }
+}
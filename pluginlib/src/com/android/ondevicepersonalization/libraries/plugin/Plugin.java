@@ -42,4 +42,10 @@ public interface Plugin {
      * @param classLoader A {@link ClassLoader} to be used to load child classes.
      */
     default void setClassLoader(ClassLoader classLoader) {}
+
+    /**
+     * Called once the plugin will not be executed anymore, so that it can release resources it
+     * kept across executions.
+     */
+    default void onUnload() {}
 }
@@ -27,6 +27,12 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * implemented by the Sandbox Developer.
  */
 public interface PluginHost {
+    /** Default budget for plugins kept loaded in the sandbox process, in kilobytes. */
+    int DEFAULT_LOADED_PLUGIN_CACHE_SIZE_KB = 32 * 1024;
+
+    /** Default number of executions of one plugin instance that run at once. */
+    int DEFAULT_MAX_CONCURRENT_EXECUTIONS = 4;
+
     /**
      * Create Bundle of initialization data used to create the PluginContext.
      *
@@ -58,4 +64,33 @@ public interface PluginHost {
     default ImmutableSet<String> getClassLoaderAllowedPackages(String pluginId) {
         return ImmutableSet.of();
     }
+
+    /**
+     * Get the budget, in kilobytes of plugin archives, for plugins that the sandbox process keeps
+     * loaded after they are unloaded, so that loading an unchanged plugin again is cheap.
+     */
+    default int getLoadedPluginCacheSizeKb() {
+        return DEFAULT_LOADED_PLUGIN_CACHE_SIZE_KB;
+    }
+
+    /**
+     * Get the number of executions of one plugin instance that run at once. Plugins that must not
+     * run two executions at once return 1. Called inside the sandbox process.
+     */
+    default int getMaxConcurrentExecutions() {
+        return DEFAULT_MAX_CONCURRENT_EXECUTIONS;
+    }
+
+    /**
+     * Get the number of sandbox processes that plugins are spread across. Called outside the
+     * sandbox process.
+     */
+    default int getExecutorServiceShardCount() {
+        return getDefaultExecutorServiceShardCount();
+    }
+
+    /** Returns the default number of sandbox processes, which is the number of cores. */
+    static int getDefaultExecutorServiceShardCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
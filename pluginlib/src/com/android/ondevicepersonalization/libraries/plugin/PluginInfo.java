@@ -58,6 +58,9 @@ public abstract class PluginInfo {
         }
     }
 
+    /** Separates the task name from the id of one instance of the task's plugin. */
+    private static final char INSTANCE_ID_SEPARATOR = '#';
+
     /** Distinguish the task. */
     public abstract String taskName();
 
@@ -86,6 +89,20 @@ public abstract class PluginInfo {
                 entryPointClassName);
     }
 
+    /**
+     * Creates the task name of one instance of a task's plugin, for hosts that load several
+     * instances of the same task side by side.
+     */
+    public static String createInstanceTaskName(String taskName, long instanceId) {
+        return taskName + INSTANCE_ID_SEPARATOR + instanceId;
+    }
+
+    /** Returns the task name that an instance task name was created from, or the name itself. */
+    public static String getTaskNameOfInstance(String taskName) {
+        int separator = taskName.lastIndexOf(INSTANCE_ID_SEPARATOR);
+        return (separator >= 0) ? taskName.substring(0, separator) : taskName;
+    }
+
     /** Instantiate a default builder of {@link PluginInfo}. */
     public static Builder builder() {
         return new AutoValue_PluginInfo.Builder();
@@ -16,29 +16,73 @@
 
 package com.android.ondevicepersonalization.libraries.plugin.impl;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.util.Log;
 
+import com.android.ondevicepersonalization.libraries.plugin.PluginApplication;
 import com.android.ondevicepersonalization.libraries.plugin.PluginController;
+import com.android.ondevicepersonalization.libraries.plugin.PluginHost;
 import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
 import com.android.ondevicepersonalization.libraries.plugin.PluginManager;
+import com.android.ondevicepersonalization.libraries.plugin.internal.PluginExecutorService;
 import com.android.ondevicepersonalization.libraries.plugin.internal.PluginExecutorServiceProviderImpl;
+import com.android.ondevicepersonalization.libraries.plugin.internal.PluginExecutorServiceShards;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * Used by clients to create new plugins and receive {@link PluginController} interfaces to control
  * them.
  */
 public class PluginManagerImpl implements PluginManager {
+    private static final String TAG = PluginManagerImpl.class.getSimpleName();
     private final Context mApplicationContext;
+    private final @Nullable PluginExecutorServiceShards mShards;
 
     public PluginManagerImpl(Context applicationContext) {
         this.mApplicationContext = applicationContext;
+        // Instances of the service can only be bound if it runs in an isolated process.
+        this.mShards =
+                isExecutorServiceIsolated(applicationContext)
+                        ? new PluginExecutorServiceShards(getShardCount(applicationContext))
+                        : null;
     }
 
     @Override
     public PluginController createPluginController(PluginInfo info) {
+        // Plugins loaded from the same archives share a shard, so their warm state is reused.
         return new PluginControllerImpl(
                 mApplicationContext,
-                new PluginExecutorServiceProviderImpl(mApplicationContext),
+                new PluginExecutorServiceProviderImpl(
+                        mApplicationContext, mShards, info.archives().toString()),
                 info);
     }
+
+    private static boolean isExecutorServiceIsolated(Context context) {
+        try {
+            ServiceInfo serviceInfo =
+                    context.getPackageManager()
+                            .getServiceInfo(
+                                    new ComponentName(context, PluginExecutorService.class), 0);
+            return (serviceInfo.flags & ServiceInfo.FLAG_ISOLATED_PROCESS) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "PluginExecutorService is not declared", e);
+            return false;
+        }
+    }
+
+    private static int getShardCount(Context context) {
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof PluginApplication) {
+            @Nullable PluginHost pluginHost =
+                    ((PluginApplication) applicationContext).getPluginHost();
+            if (pluginHost != null) {
+                return pluginHost.getExecutorServiceShardCount();
+            }
+        }
+        return PluginHost.getDefaultExecutorServiceShardCount();
+    }
 }
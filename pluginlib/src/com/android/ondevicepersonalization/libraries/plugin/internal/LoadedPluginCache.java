@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import android.util.LruCache;
+
+import com.android.ondevicepersonalization.libraries.plugin.Plugin;
+import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * LRU cache of loaded {@link Plugin} entry point instances, together with the ClassLoader they
+ * were loaded by, keyed by the checksum of their archives. Loading an unchanged archive again is
+ * a lookup in this cache instead of a new dex load. Entries are weighed by the size of their
+ * archives against a budget in kilobytes.
+ *
+ * <p>Plugins that leave the cache are reported to a listener, so they can be torn down once they
+ * are not loaded anymore. The entry each task was last loaded from is tracked, and an entry that
+ * no task was last loaded from, such as the one of an archive that has since been updated, is
+ * evicted right away instead of waiting for LRU pressure.
+ */
+final class LoadedPluginCache {
+    private static final class Entry {
+        final Plugin mPlugin;
+        final int mSizeKb;
+
+        Entry(Plugin plugin, int sizeKb) {
+            mPlugin = plugin;
+            mSizeKb = sizeKb;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries;
+    private final Map<String, String> mKeysByTask = new HashMap<>();
+
+    LoadedPluginCache(int maxSizeKb, Consumer<Plugin> removedListener) {
+        mEntries =
+                new LruCache<String, Entry>(Math.max(1, maxSizeKb)) {
+                    @Override
+                    protected int sizeOf(String key, Entry entry) {
+                        return entry.mSizeKb;
+                    }
+
+                    @Override
+                    protected void entryRemoved(
+                            boolean evicted, String key, Entry oldEntry, Entry newEntry) {
+                        if (newEntry == null || newEntry.mPlugin != oldEntry.mPlugin) {
+                            removedListener.accept(oldEntry.mPlugin);
+                        }
+                    }
+                };
+    }
+
+    /**
+     * Returns the cache key for a plugin, or null if the plugin cannot be cached because one of its
+     * archives has no checksum.
+     */
+    static @Nullable String createKey(
+            PluginInfoInternal info,
+            ImmutableSet<String> allowedClasses,
+            ImmutableSet<String> allowedPackages) {
+        String checksum = info.computeChecksum();
+        if (checksum == null) {
+            return null;
+        }
+        // The ClassLoader of a cached plugin was created with these allowlists, so they are part
+        // of the key.
+        return info.entryPointClassName()
+                + "|"
+                + checksum
+                + "|"
+                + Ordering.natural().sortedCopy(allowedClasses)
+                + "|"
+                + Ordering.natural().sortedCopy(allowedPackages);
+    }
+
+    /** Returns the total size of the archives of a plugin, in kilobytes. */
+    static int computeSizeKb(PluginInfoInternal info) {
+        long sizeBytes = 0;
+        for (PluginCode pluginCode : info.pluginCodeList()) {
+            sizeBytes += Math.max(0, pluginCode.nonNativeFd().getStatSize());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, sizeBytes / 1024));
+    }
+
+    /** Returns the cached plugin for {@code key}, or null if it is not cached. */
+    @Nullable Plugin get(String key) {
+        Entry entry = mEntries.get(key);
+        return (entry != null) ? entry.mPlugin : null;
+    }
+
+    /**
+     * Records that {@code taskName} was last loaded from the entry for {@code key}, and evicts the
+     * entry it was loaded from before if no other task uses it. Instances of a task are tracked
+     * under the task they were created for, so that there is one record per task.
+     */
+    void setKeyForTask(String taskName, String key) {
+        taskName = PluginInfo.getTaskNameOfInstance(taskName);
+        String staleKey;
+        synchronized (mKeysByTask) {
+            staleKey = mKeysByTask.put(taskName, key);
+            if (staleKey == null
+                    || staleKey.equals(key)
+                    || mKeysByTask.containsValue(staleKey)) {
+                return;
+            }
+        }
+        // The removal listener must not run under the lock.
+        mEntries.remove(staleKey);
+    }
+
+    /** Returns whether {@code plugin} is held by the cache. */
+    boolean contains(Plugin plugin) {
+        for (Entry entry : mEntries.snapshot().values()) {
+            if (entry.mPlugin == plugin) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds a loaded plugin to the cache, evicting the least recently used ones if needed. */
+    void put(String key, Plugin plugin, int sizeKb) {
+        mEntries.put(key, new Entry(plugin, sizeKb));
+    }
+
+    /** Updates the budget of the cache, evicting entries if it shrinks. */
+    void resize(int maxSizeKb) {
+        if (maxSizeKb != mEntries.maxSize()) {
+            mEntries.resize(Math.max(1, maxSizeKb));
+        }
+    }
+}
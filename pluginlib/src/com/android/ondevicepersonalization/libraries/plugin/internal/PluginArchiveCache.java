@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import android.os.FileUtils;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent cache of plugin archives copied out of installed packages.
+ *
+ * <p>Cached archives are named after a key derived from the source path, last update time and
+ * size of the installed archive, so an unchanged archive is copied only once. New archives are
+ * written to a temporary file and renamed into place so that a partially written archive is never
+ * loaded. Stale archives of a package are deleted once a newer one is cached, and the least
+ * recently used archives are deleted once the cache holds more than {@link #MAX_ARCHIVES}.
+ *
+ * <p>Archives used to be copied to {@code <package>.apk} in the root of the app's cache directory.
+ * Those copies are deleted the first time the cache is used.
+ */
+final class PluginArchiveCache {
+    private static final String TAG = "PluginArchiveCache";
+    private static final String ARCHIVE_SUFFIX = ".apk";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEY_SEPARATOR = "-";
+    private static final long STALE_TEMP_FILE_AGE_MS = 60 * 60 * 1000;
+
+    @VisibleForTesting static final int MAX_ARCHIVES = 8;
+
+    private final File mCacheDir;
+    private final File mLegacyDir;
+    private final AtomicBoolean mLegacyArchivesDeleted = new AtomicBoolean(false);
+
+    /**
+     * Creates a cache in {@code cacheDir}. {@code legacyDir} is the directory that archives were
+     * copied to before.
+     */
+    PluginArchiveCache(File cacheDir, File legacyDir) {
+        this.mCacheDir = cacheDir;
+        this.mLegacyDir = legacyDir;
+    }
+
+    /**
+     * Returns the cache key for an installed archive. The key is also used as the archive's
+     * checksum by the executor.
+     */
+    static String createCacheKey(String sourcePath, long lastUpdateTime, long size) {
+        return Hashing.sha256()
+                .hashString(
+                        sourcePath + ":" + lastUpdateTime + ":" + size, StandardCharsets.UTF_8)
+                .toString()
+                .substring(0, 32);
+    }
+
+    /**
+     * Returns the cached copy of {@code source}, copying it into the cache if there is no copy
+     * for {@code cacheKey} yet. Returns null if the archive could not be copied.
+     */
+    @Nullable File getOrCopy(String name, File source, String cacheKey) {
+        if (mLegacyArchivesDeleted.compareAndSet(false, true)) {
+            deleteLegacyArchives();
+        }
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            Log.e(TAG, String.format("Could not create %s", mCacheDir));
+            return null;
+        }
+        File cached = new File(mCacheDir, name + KEY_SEPARATOR + cacheKey + ARCHIVE_SUFFIX);
+        if (cached.exists() && cached.length() == source.length()) {
+            // Track recency of use for LRU cleanup.
+            cached.setLastModified(System.currentTimeMillis());
+            return cached;
+        }
+
+        File temp = null;
+        try {
+            temp = File.createTempFile(name + KEY_SEPARATOR, TEMP_SUFFIX, mCacheDir);
+            try (InputStream src = new FileInputStream(source);
+                    FileOutputStream dst = new FileOutputStream(temp)) {
+                FileUtils.copy(src, dst);
+                dst.getFD().sync();
+            }
+            if (!temp.renameTo(cached)) {
+                Log.e(TAG, String.format("Could not move %s to %s", temp, cached));
+                return null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Error copying %s to cache dir", source), e);
+            return null;
+        } finally {
+            if (temp != null && temp.exists()) {
+                temp.delete();
+            }
+        }
+
+        deleteStaleArchives(name, cached);
+        return cached;
+    }
+
+    /**
+     * Deletes the copies of installed archives in the legacy directory. Archives copied from
+     * assets are still kept there, and are told apart by their checksum file.
+     */
+    private void deleteLegacyArchives() {
+        File[] files = mLegacyDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!file.isFile() || !fileName.endsWith(ARCHIVE_SUFFIX)) {
+                continue;
+            }
+            String checksumFileName =
+                    fileName.substring(0, fileName.length() - ARCHIVE_SUFFIX.length())
+                            + PluginArchiveManager.CHECKSUM_SUFFIX;
+            if (!new File(mLegacyDir, checksumFileName).exists() && !file.delete()) {
+                Log.w(TAG, String.format("Could not delete legacy archive %s", file));
+            }
+        }
+    }
+
+    /** Deletes other archives of {@code name} and trims the cache to {@link #MAX_ARCHIVES}. */
+    private void deleteStaleArchives(String name, File current) {
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<File> archives = new ArrayList<>();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.equals(current)) {
+                continue;
+            }
+            if (fileName.endsWith(TEMP_SUFFIX)) {
+                // Left behind by a copy that was interrupted.
+                if (now - file.lastModified() > STALE_TEMP_FILE_AGE_MS) {
+                    file.delete();
+                }
+            } else if (fileName.startsWith(name + KEY_SEPARATOR)) {
+                file.delete();
+            } else if (fileName.endsWith(ARCHIVE_SUFFIX)) {
+                archives.add(file);
+            }
+        }
+
+        int excess = archives.size() + 1 - MAX_ARCHIVES;
+        if (excess <= 0) {
+            return;
+        }
+        File[] lru = archives.toArray(new File[0]);
+        Arrays.sort(lru, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < excess; ++i) {
+            lru[i].delete();
+        }
+    }
+}
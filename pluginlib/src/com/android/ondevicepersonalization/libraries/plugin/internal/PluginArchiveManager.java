@@ -33,11 +33,12 @@ import android.util.Pair;
 import com.android.ondevicepersonalization.libraries.plugin.PluginInfo.ArchiveInfo;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.SettableFuture;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -57,12 +58,18 @@ import java.util.concurrent.TimeoutException;
  */
 public final class PluginArchiveManager {
     private static final String TAG = "PluginArchiveManager";
-    private static final String CHECKSUM_SUFFIX = ".md5";
+    static final String CHECKSUM_SUFFIX = ".md5";
+    private static final String ARCHIVE_CACHE_DIR = "plugin_archives";
     private static final long BIND_TIMEOUT_MS = 2_000;
     private final Context mApplicationContext;
+    private final PluginArchiveCache mArchiveCache;
 
     public PluginArchiveManager(Context applicationContext) {
         this.mApplicationContext = applicationContext;
+        this.mArchiveCache =
+                new PluginArchiveCache(
+                        new File(applicationContext.getCacheDir(), ARCHIVE_CACHE_DIR),
+                        applicationContext.getCacheDir());
     }
 
     /** Interface to wrap the service call the PluginManager wants to make. */
@@ -103,6 +110,7 @@ public final class PluginArchiveManager {
         // sandbox container.
         // Avoid using Context.getAssets().openFd() as it wraps a file descriptor mapped to
         // the-entire-app-apk instead of the-plugin-archive-in-the-app-apk.
+        ImmutableList.Builder<Pair<File, String>> archivesInCacheDir = ImmutableList.builder();
         for (ArchiveInfo pluginArchive : pluginArchives) {
             if (pluginArchive.packageName() != null && pluginArchive.filename() != null) {
                 // If the package is not null, and the file name is not null, the Plugin APK is an
@@ -112,12 +120,16 @@ public final class PluginArchiveManager {
                     return false;
                 }
             } else if (pluginArchive.packageName() != null && pluginArchive.filename() == null) {
-                if (!copyPluginFromInstalledPackageToCacheDir(pluginArchive)) {
-                    // If the package is not null, but the file name is null, the Plugin is the APK
-                    // from the
-                    // installed package.
+                // If the package is not null, but the file name is null, the Plugin is the APK
+                // from the installed package. It is served from the archive cache, which also
+                // provides its checksum.
+                Pair<File, String> cachedArchive =
+                        copyPluginFromInstalledPackageToCacheDir(pluginArchive);
+                if (cachedArchive == null) {
                     return false;
                 }
+                archivesInCacheDir.add(cachedArchive);
+                continue;
             } else if (pluginArchive.packageName() == null && pluginArchive.filename() != null) {
                 // If the package is null, and the filename is not null, the Plugin is an APK in the
                 // current
@@ -129,22 +141,18 @@ public final class PluginArchiveManager {
                 Log.e(TAG, "Archive filename and package cannot both be null!");
                 return false;
             }
+            archivesInCacheDir.add(
+                    new Pair<>(
+                            createArchiveFileInCacheDir(pluginArchive),
+                            getArchiveChecksum(pluginArchive)));
         }
 
         // Consider further optimizations and restrictions e.g.,
         //  - Cache file descriptors (be careful of the shared file offset among all fd.dup())
         //  - Restrict cpu affinity and usage i.e. background execution
 
-        ImmutableList<Pair<File, String>> archivesInCacheDir =
-                ImmutableList.copyOf(
-                        Lists.transform(
-                                pluginArchives,
-                                (ArchiveInfo archive) ->
-                                        new Pair<>(
-                                                createArchiveFileInCacheDir(archive),
-                                                getArchiveChecksum(archive))));
         try (CloseableList<PluginCode> files =
-                createCloseablePluginCodeListFromFiles(archivesInCacheDir)) {
+                createCloseablePluginCodeListFromFiles(archivesInCacheDir.build())) {
             infoBuilder.setPluginCodeList(ImmutableList.copyOf(files.closeables()));
 
             PluginInfoInternal info = infoBuilder.build();
@@ -224,7 +232,7 @@ public final class PluginArchiveManager {
         if (pluginArchive.packageName() != null) {
             // TODO(b/247119575): resolve a mutant here. Test for cache hits & misses when expected.
             if (pluginArchive.filename() == null) {
-                // TODO(b/248365642): return some other cacheKey, like lastUpdateTime, here.
+                // Installed packages get their checksum from the PluginArchiveCache.
                 return DEFAULT_CHECKSUM;
             }
             try {
@@ -254,7 +262,13 @@ public final class PluginArchiveManager {
         return pluginContext.getAssets();
     }
 
-    private boolean copyPluginFromInstalledPackageToCacheDir(ArchiveInfo pluginArchive) {
+    /**
+     * Returns the copy of the installed package's APK in the archive cache together with its
+     * checksum, copying the APK only if it changed since it was last cached. Returns null if the
+     * APK could not be copied.
+     */
+    private @Nullable Pair<File, String> copyPluginFromInstalledPackageToCacheDir(
+            ArchiveInfo pluginArchive) {
         try {
             PackageInfo packageInfo =
                     mApplicationContext
@@ -267,25 +281,27 @@ public final class PluginArchiveManager {
                         TAG,
                         String.format(
                                 "Package %s has no ApplicationInfo", pluginArchive.packageName()));
-                return false;
+                return null;
             }
 
-            String pluginApkPath = applicationInfo.sourceDir;
-            File pluginInCacheDir = createArchiveFileInCacheDir(pluginArchive);
-
-            try (InputStream pluginSrc = new FileInputStream(pluginApkPath);
-                    OutputStream pluginDst = new FileOutputStream(pluginInCacheDir);) {
-                FileUtils.copy(pluginSrc, pluginDst);
-                return true;
-            } catch (IOException e) {
+            File pluginApk = new File(applicationInfo.sourceDir);
+            String cacheKey =
+                    PluginArchiveCache.createCacheKey(
+                            applicationInfo.sourceDir,
+                            packageInfo.lastUpdateTime,
+                            pluginApk.length());
+            File pluginInCacheDir =
+                    mArchiveCache.getOrCopy(pluginArchive.packageName(), pluginApk, cacheKey);
+            if (pluginInCacheDir == null) {
                 Log.e(TAG, String.format("Error copying %s to cache dir", pluginArchive));
+                return null;
             }
-            return false;
+            return new Pair<>(pluginInCacheDir, cacheKey);
 
         } catch (NameNotFoundException e) {
             Log.e(TAG, String.format("Unknown package name %s", pluginArchive.packageName()));
         }
-        return false;
+        return null;
     }
 
     private boolean copyPluginFromPackageAssetsToCacheDir(ArchiveInfo pluginArchive) {
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs plugin executions on a shared thread pool. Executions of the same plugin run on a lane for
+ * that plugin, in order and at most a given number at a time, while different plugins run in
+ * parallel. A lane that allows one execution at a time is serial. Each lane has a bounded queue,
+ * so executions for an overloaded plugin are rejected right away instead of piling up.
+ */
+final class PluginExecutionScheduler {
+    private static final String TAG = "PluginExecutionScheduler";
+
+    private final Executor mExecutor;
+    private final int mMaxQueuedExecutions;
+    private final Map<String, Lane> mLanes = new ConcurrentHashMap<>();
+
+    PluginExecutionScheduler(Executor executor, int maxQueuedExecutions) {
+        this.mExecutor = executor;
+        this.mMaxQueuedExecutions = maxQueuedExecutions;
+    }
+
+    /**
+     * Schedules an execution of a plugin on a serial lane. Returns false if the plugin already has
+     * the maximum number of executions queued.
+     */
+    boolean schedule(String pluginId, Runnable execution) {
+        return schedule(pluginId, 1, execution);
+    }
+
+    /**
+     * Schedules an execution of a plugin that runs at most {@code maxConcurrentExecutions}
+     * executions at once. Returns false if the plugin already has the maximum number of
+     * executions queued.
+     */
+    boolean schedule(String pluginId, int maxConcurrentExecutions, Runnable execution) {
+        return mLanes.computeIfAbsent(pluginId, id -> new Lane(id))
+                .offer(execution, Math.max(1, maxConcurrentExecutions));
+    }
+
+    /**
+     * Schedules the teardown of a plugin after its queued executions. Unlike executions, a
+     * teardown is never rejected, and it runs alone, so it cannot run concurrently with an
+     * execution.
+     */
+    void scheduleTeardown(String pluginId, Runnable teardown) {
+        mLanes.computeIfAbsent(pluginId, id -> new Lane(id)).offerTeardown(teardown);
+    }
+
+    /** Drops the lane of an unloaded plugin. Executions that are already queued still run. */
+    void remove(String pluginId) {
+        mLanes.remove(pluginId);
+    }
+
+    /** Returns the number of executions of a plugin that are queued or running. */
+    int getQueueDepth(String pluginId) {
+        Lane lane = mLanes.get(pluginId);
+        return (lane != null) ? lane.getQueueDepth() : 0;
+    }
+
+    /** Prints queue depth and run time statistics of each plugin. */
+    void dump(PrintWriter writer) {
+        writer.println("Plugin execution lanes:");
+        for (Lane lane : mLanes.values()) {
+            lane.dump(writer);
+        }
+    }
+
+    private static final class Task {
+        final Runnable mRunnable;
+        final boolean mTeardown;
+
+        Task(Runnable runnable, boolean teardown) {
+            mRunnable = runnable;
+            mTeardown = teardown;
+        }
+    }
+
+    private final class Lane {
+        private final String mPluginId;
+        private final Queue<Task> mQueue = new ArrayDeque<>();
+        private int mMaxConcurrentExecutions = 1;
+        private int mRunningCount = 0;
+        private boolean mTeardownRunning = false;
+        private long mExecutionCount = 0;
+        private long mRejectedCount = 0;
+        private long mTotalRunTimeMillis = 0;
+        private long mMaxRunTimeMillis = 0;
+        private int mMaxQueueDepth = 0;
+
+        Lane(String pluginId) {
+            mPluginId = pluginId;
+        }
+
+        synchronized boolean offer(Runnable execution, int maxConcurrentExecutions) {
+            if (getQueueDepth() >= mMaxQueuedExecutions) {
+                ++mRejectedCount;
+                Log.w(
+                        TAG,
+                        String.format(
+                                "Rejecting execution of %s, %d executions queued",
+                                mPluginId, getQueueDepth()));
+                return false;
+            }
+            mMaxConcurrentExecutions = maxConcurrentExecutions;
+            mQueue.add(new Task(execution, false));
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, getQueueDepth());
+            startNextLocked();
+            return true;
+        }
+
+        synchronized void offerTeardown(Runnable teardown) {
+            mQueue.add(new Task(teardown, true));
+            startNextLocked();
+        }
+
+        synchronized int getQueueDepth() {
+            return mQueue.size() + mRunningCount;
+        }
+
+        private void startNextLocked() {
+            while (!mTeardownRunning && mRunningCount < mMaxConcurrentExecutions) {
+                Task task = mQueue.peek();
+                if (task == null || (task.mTeardown && mRunningCount > 0)) {
+                    // A teardown waits for the running executions to finish.
+                    return;
+                }
+                mQueue.poll();
+                ++mRunningCount;
+                mTeardownRunning = task.mTeardown;
+                // Each execution is handed to the pool separately, so that one busy plugin
+                // cannot starve the others.
+                mExecutor.execute(() -> run(task));
+            }
+        }
+
+        private void run(Task task) {
+            long startTimeMillis = SystemClock.elapsedRealtime();
+            try {
+                task.mRunnable.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, String.format("Execution of %s failed", mPluginId), e);
+            }
+            long runTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+            synchronized (this) {
+                ++mExecutionCount;
+                mTotalRunTimeMillis += runTimeMillis;
+                mMaxRunTimeMillis = Math.max(mMaxRunTimeMillis, runTimeMillis);
+                --mRunningCount;
+                if (task.mTeardown) {
+                    mTeardownRunning = false;
+                }
+                startNextLocked();
+            }
+        }
+
+        synchronized void dump(PrintWriter writer) {
+            writer.println(
+                    String.format(
+                            "  %s: depth=%d maxDepth=%d executed=%d rejected=%d"
+                                    + " avgRunTimeMs=%d maxRunTimeMs=%d",
+                            mPluginId,
+                            getQueueDepth(),
+                            mMaxQueueDepth,
+                            mExecutionCount,
+                            mRejectedCount,
+                            (mExecutionCount > 0) ? mTotalRunTimeMillis / mExecutionCount : 0,
+                            mMaxRunTimeMillis));
+        }
+    }
+}
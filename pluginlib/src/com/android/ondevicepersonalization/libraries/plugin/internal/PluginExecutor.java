@@ -32,20 +32,78 @@ import com.google.common.collect.ImmutableSet;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.util.HashMap;
+import java.io.PrintWriter;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-/** Loads and executes plugins in the current process. */
+/**
+ * Loads and executes plugins in the current process. Executions run on a {@link
+ * PluginExecutionScheduler}, which bounds the executions of each plugin instance that run at once
+ * and that are queued, while running different instances in parallel. Ids that share a cached
+ * instance share its lane. Plugins that must not run two executions at once opt in to a serial
+ * lane with {@link PluginHost#getMaxConcurrentExecutions()}.
+ */
 public class PluginExecutor {
     private static final String TAG = "PluginExecutor";
-    private final Map<String, Plugin> mPlugins = new HashMap<>();
-    private final Map<String, PluginContext> mPluginContexts = new HashMap<>();
+    private static final int MAX_QUEUED_EXECUTIONS_PER_PLUGIN = 16;
+    // Plugins mostly wait for IPC, e.g. to read vendor data, so the pool has more threads than
+    // there are cores. Idle threads are stopped.
+    private static final int EXECUTION_THREAD_COUNT = 32;
+    private static final long EXECUTION_THREAD_KEEP_ALIVE_SECONDS = 60;
+    private final Map<String, LoadedPlugin> mPlugins = new ConcurrentHashMap<>();
     private final Context mContext;
     private final PluginLoader mPluginLoader;
+    private final PluginExecutionScheduler mScheduler;
+    // Guards the loaded plugin cache, the lane ids and updates of mPlugins, so that an instance
+    // is never torn down while it is being registered or executed.
+    private final Object mLoadLock = new Object();
+    private final LoadedPluginCache mLoadedPluginCache =
+            new LoadedPluginCache(
+                    PluginHost.DEFAULT_LOADED_PLUGIN_CACHE_SIZE_KB, this::onEvicted);
+    // Lane of each plugin instance that has not been torn down. Guarded by mLoadLock.
+    private final Map<Plugin, String> mLaneIds = new IdentityHashMap<>();
+    private int mLaneCount = 0; // Guarded by mLoadLock.
+
+    private static final class LoadedPlugin {
+        final Plugin mPlugin;
+        final @Nullable PluginContext mPluginContext;
+        final String mLaneId;
+        final int mMaxConcurrentExecutions;
+
+        LoadedPlugin(
+                Plugin plugin,
+                @Nullable PluginContext pluginContext,
+                String laneId,
+                int maxConcurrentExecutions) {
+            mPlugin = plugin;
+            mPluginContext = pluginContext;
+            mLaneId = laneId;
+            mMaxConcurrentExecutions = maxConcurrentExecutions;
+        }
+    }
 
     /** Creates a {@link PluginExecutor}. */
     public static PluginExecutor create(Context context, PluginLoader pluginLoader) {
-        return new PluginExecutor(context, pluginLoader);
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        EXECUTION_THREAD_COUNT,
+                        EXECUTION_THREAD_COUNT,
+                        EXECUTION_THREAD_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return create(context, pluginLoader, executor);
+    }
+
+    /** Creates a {@link PluginExecutor} that runs plugins on the given executor. */
+    public static PluginExecutor create(
+            Context context, PluginLoader pluginLoader, Executor executor) {
+        return new PluginExecutor(context, pluginLoader, executor);
     }
 
     /**
@@ -69,12 +127,42 @@ public class PluginExecutor {
 
         ImmutableSet<String> allowedClasses = ImmutableSet.of();
         ImmutableSet<String> allowedPackages = ImmutableSet.of();
+        int maxConcurrentExecutions = PluginHost.DEFAULT_MAX_CONCURRENT_EXECUTIONS;
         if (pluginHost != null) {
             allowedClasses = pluginHost.getClassLoaderAllowedClasses(info.taskName());
             allowedPackages = pluginHost.getClassLoaderAllowedPackages(info.taskName());
+            maxConcurrentExecutions = pluginHost.getMaxConcurrentExecutions();
+        }
+
+        // TODO(b/239079452) : Use unique id to identify plugins.
+        String pluginId = info.taskName();
+
+        @Nullable PluginContext pluginContext = null;
+        if (pluginHost != null) {
+            pluginContext = pluginHost.createPluginContext(pluginId, pluginContextInitData);
         }
 
-        Plugin plugin =
+        // Reuse the plugin instance, and with it the ClassLoader, if the same archives were
+        // loaded before.
+        @Nullable String cacheKey =
+                LoadedPluginCache.createKey(info, allowedClasses, allowedPackages);
+        boolean registered;
+        synchronized (mLoadLock) {
+            if (pluginHost != null) {
+                mLoadedPluginCache.resize(pluginHost.getLoadedPluginCacheSizeKb());
+            }
+            registered =
+                    cacheKey != null
+                            && registerCachedLocked(
+                                    pluginId, cacheKey, pluginContext, maxConcurrentExecutions);
+        }
+        if (registered) {
+            callback.onSuccess(new Bundle());
+            return;
+        }
+
+        // Load outside of the lock, as loading dex files is slow.
+        @Nullable Plugin plugin =
                 mPluginLoader.loadPlugin(
                         info.entryPointClassName(),
                         info.pluginCodeList(),
@@ -86,52 +174,91 @@ public class PluginExecutor {
             return;
         }
 
-        // TODO(b/239079452) : Use unique id to identify plugins.
-        String pluginId = info.taskName();
-
-        mPlugins.put(pluginId, plugin);
-        @Nullable PluginContext pluginContext = null;
-        if (pluginHost != null) {
-            pluginContext = pluginHost.createPluginContext(pluginId, pluginContextInitData);
+        boolean lostRace;
+        synchronized (mLoadLock) {
+            // Another load of the same archives may have won the race.
+            lostRace =
+                    cacheKey != null
+                            && registerCachedLocked(
+                                    pluginId, cacheKey, pluginContext, maxConcurrentExecutions);
+            if (!lostRace) {
+                // Registered before it is cached, so that it is not torn down if the cache
+                // evicts it right away.
+                registerLocked(pluginId, plugin, pluginContext, maxConcurrentExecutions);
+                if (cacheKey != null) {
+                    mLoadedPluginCache.put(
+                            cacheKey, plugin, LoadedPluginCache.computeSizeKb(info));
+                    // Evicts the entry of the archives this task used before an update.
+                    mLoadedPluginCache.setKeyForTask(pluginId, cacheKey);
+                }
+            }
+        }
+        if (lostRace) {
+            unloadPlugin(plugin);
         }
-        mPluginContexts.put(pluginId, pluginContext);
 
         // TODO(b/239079143): Add more specific methods to the callback.
         callback.onSuccess(new Bundle());
     }
 
-    /** Executes a plugin. */
+    /**
+     * Executes a plugin. The execution is queued on the lane of the plugin instance and fails
+     * right away if the lane is full.
+     */
     public void execute(Bundle input, String pluginId, PluginCallback callback)
             throws RemoteException {
-        if (!mPlugins.containsKey(pluginId)) {
-            Log.e(TAG, String.format("Could not find a plugin associated with %s", pluginId));
-            callback.onFailure(FailureType.ERROR_EXECUTING_PLUGIN);
-            return;
+        boolean scheduled;
+        synchronized (mLoadLock) {
+            LoadedPlugin loadedPlugin = mPlugins.get(pluginId);
+            if (loadedPlugin == null) {
+                Log.e(TAG, String.format("Could not find a plugin associated with %s", pluginId));
+                scheduled = false;
+            } else {
+                if (loadedPlugin.mPluginContext == null) {
+                    Log.d(TAG, String.format(
+                            "No PluginContext for plugin with id %s found", pluginId));
+                }
+                // Scheduled under the lock, so that it runs before any teardown of the
+                // instance.
+                scheduled =
+                        mScheduler.schedule(
+                                loadedPlugin.mLaneId,
+                                loadedPlugin.mMaxConcurrentExecutions,
+                                () -> {
+                                    try {
+                                        loadedPlugin.mPlugin.onExecute(
+                                                input, callback, loadedPlugin.mPluginContext);
+                                    } catch (RuntimeException e) {
+                                        Log.e(TAG,
+                                                String.format("Plugin %s failed", pluginId), e);
+                                        sendFailure(
+                                                callback, FailureType.ERROR_EXECUTING_PLUGIN);
+                                    }
+                                });
+            }
         }
-        if (!mPluginContexts.containsKey(pluginId)) {
-            Log.e(TAG, String.format("No PluginContext for plugin with id %s found", pluginId));
+        if (!scheduled) {
+            callback.onFailure(FailureType.ERROR_EXECUTING_PLUGIN);
         }
-
-        mPlugins.get(pluginId).onExecute(input, callback, mPluginContexts.get(pluginId));
     }
 
-    /** Unloads a plugin. */
+    /**
+     * Unloads a plugin. The plugin instance is torn down once it is neither loaded under another
+     * id nor kept in the loaded plugin cache.
+     */
     public void unload(String pluginId, PluginCallback callback) throws RemoteException {
-
-        if (!mPlugins.containsKey(pluginId)) {
-            Log.e(TAG, String.format("Could not find a plugin associated with %s", pluginId));
-            callback.onFailure(FailureType.ERROR_UNLOADING_PLUGIN);
-            return;
+        LoadedPlugin loadedPlugin;
+        synchronized (mLoadLock) {
+            loadedPlugin = mPlugins.remove(pluginId);
+            if (loadedPlugin != null) {
+                scheduleTeardownLocked(loadedPlugin.mPlugin);
+            }
         }
-        if (!mPluginContexts.containsKey(pluginId)) {
-            Log.e(
-                    TAG,
-                    String.format("Could not find a pluginContext associated with %s", pluginId));
+        if (loadedPlugin == null) {
+            Log.e(TAG, String.format("Could not find a plugin associated with %s", pluginId));
             callback.onFailure(FailureType.ERROR_UNLOADING_PLUGIN);
             return;
         }
-        mPlugins.remove(pluginId);
-        mPluginContexts.remove(pluginId);
         callback.onSuccess(new Bundle());
     }
 
@@ -143,18 +270,124 @@ public class PluginExecutor {
             stateCallback.onState(PluginState.STATE_NOT_LOADED);
             return;
         }
-        if (!mPluginContexts.containsKey(pluginId)) {
-            Log.e(
-                    TAG,
-                    String.format("Could not find a pluginContext associated with %s", pluginId));
-            stateCallback.onState(PluginState.STATE_NOT_LOADED);
-            return;
-        }
         stateCallback.onState(PluginState.STATE_LOADED);
     }
 
-    private PluginExecutor(Context context, PluginLoader pluginLoader) {
+    /**
+     * Returns the number of queued and running executions of a plugin, including those of other
+     * ids that share its instance.
+     */
+    public int getQueueDepth(String pluginId) {
+        LoadedPlugin loadedPlugin = mPlugins.get(pluginId);
+        return (loadedPlugin != null) ? mScheduler.getQueueDepth(loadedPlugin.mLaneId) : 0;
+    }
+
+    /** Prints the loaded plugins and their execution statistics. */
+    public void dump(PrintWriter writer) {
+        writer.println("Loaded plugins: " + mPlugins.keySet());
+        mScheduler.dump(writer);
+    }
+
+    /**
+     * Registers the cached plugin for {@code cacheKey} under {@code pluginId}. Must be called
+     * with mLoadLock held, so that the plugin cannot be torn down before it is registered.
+     *
+     * @return Whether the plugin was cached.
+     */
+    private boolean registerCachedLocked(
+            String pluginId,
+            String cacheKey,
+            @Nullable PluginContext pluginContext,
+            int maxConcurrentExecutions) {
+        @Nullable Plugin plugin = mLoadedPluginCache.get(cacheKey);
+        if (plugin == null) {
+            return false;
+        }
+        registerLocked(pluginId, plugin, pluginContext, maxConcurrentExecutions);
+        mLoadedPluginCache.setKeyForTask(pluginId, cacheKey);
+        return true;
+    }
+
+    private void registerLocked(
+            String pluginId,
+            Plugin plugin,
+            @Nullable PluginContext pluginContext,
+            int maxConcurrentExecutions) {
+        String laneId = mLaneIds.get(plugin);
+        if (laneId == null) {
+            laneId = pluginId + "#" + (++mLaneCount);
+            mLaneIds.put(plugin, laneId);
+        }
+        LoadedPlugin previous =
+                mPlugins.put(
+                        pluginId,
+                        new LoadedPlugin(
+                                plugin, pluginContext, laneId, maxConcurrentExecutions));
+        if (previous != null && previous.mPlugin != plugin) {
+            // Tear down the instance this id used before, e.g. before a package update.
+            scheduleTeardownLocked(previous.mPlugin);
+        }
+    }
+
+    private void onEvicted(Plugin plugin) {
+        synchronized (mLoadLock) {
+            scheduleTeardownLocked(plugin);
+        }
+    }
+
+    /**
+     * Tears down a plugin instance on its lane, after its queued executions, unless it is in use
+     * again by then.
+     */
+    private void scheduleTeardownLocked(Plugin plugin) {
+        String laneId = mLaneIds.get(plugin);
+        if (laneId != null) {
+            mScheduler.scheduleTeardown(laneId, () -> unloadIfUnused(plugin));
+        }
+    }
+
+    private void unloadIfUnused(Plugin plugin) {
+        String laneId;
+        synchronized (mLoadLock) {
+            for (LoadedPlugin loadedPlugin : mPlugins.values()) {
+                if (loadedPlugin.mPlugin == plugin) {
+                    return;
+                }
+            }
+            if (mLoadedPluginCache.contains(plugin)) {
+                return;
+            }
+            laneId = mLaneIds.remove(plugin);
+            if (laneId == null) {
+                // Already torn down.
+                return;
+            }
+        }
+        // Nothing can schedule on the lane anymore, as the instance cannot be found.
+        mScheduler.remove(laneId);
+        unloadPlugin(plugin);
+    }
+
+    private static void unloadPlugin(Plugin plugin) {
+        try {
+            plugin.onUnload();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error unloading plugin", e);
+        }
+    }
+
+    private static void sendFailure(PluginCallback callback, FailureType failure) {
+        try {
+            callback.onFailure(failure);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Callback error.", e);
+        }
+    }
+
+    private PluginExecutor(Context context, PluginLoader pluginLoader, Executor executor) {
         this.mContext = context;
         this.mPluginLoader = pluginLoader;
+        this.mScheduler =
+                new PluginExecutionScheduler(executor, MAX_QUEUED_EXECUTIONS_PER_PLUGIN);
     }
 }
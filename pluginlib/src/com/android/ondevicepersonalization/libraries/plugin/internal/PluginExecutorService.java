@@ -33,6 +33,9 @@ import com.android.ondevicepersonalization.libraries.plugin.PluginState;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /** Service that loads, and executes {@link Plugin} implementations. */
 public class PluginExecutorService extends Service {
     public static final String TAG = "PluginExecutorService";
@@ -66,6 +69,13 @@ public class PluginExecutorService extends Service {
         mPluginApplication = (PluginApplication) applicationContext;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (mPluginExecutor != null) {
+            mPluginExecutor.dump(writer);
+        }
+    }
+
     @Override
     public @Nullable IBinder onBind(Intent intent) {
 
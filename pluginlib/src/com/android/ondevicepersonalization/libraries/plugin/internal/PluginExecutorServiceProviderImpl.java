@@ -34,7 +34,11 @@ import java.util.concurrent.Executors;
 public final class PluginExecutorServiceProviderImpl implements PluginExecutorServiceProvider {
     private static final String TAG = PluginExecutorServiceProviderImpl.class.getSimpleName();
     private static final Executor SINGLE_THREAD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int NO_SHARD = -1;
     private final Context mContext;
+    private final @Nullable PluginExecutorServiceShards mShards;
+    private final String mAffinityKey;
+    private int mShard = NO_SHARD;
     private IPluginExecutorService mPluginExecutorService = null;
     private SettableFuture<Boolean> mPluginExecutorServiceReadiness = SettableFuture.create();
     private boolean mBound;
@@ -65,7 +69,20 @@ public final class PluginExecutorServiceProviderImpl implements PluginExecutorSe
             };
 
     public PluginExecutorServiceProviderImpl(Context context) {
+        this(context, null, "");
+    }
+
+    /**
+     * Creates a provider that binds to the shard of the {@link PluginExecutorService} assigned to
+     * {@code affinityKey}. Providers with the same affinity key share a shard. Without shards,
+     * e.g. because the service is not declared as an isolated process, it binds to the single
+     * instance of the service.
+     */
+    public PluginExecutorServiceProviderImpl(
+            Context context, @Nullable PluginExecutorServiceShards shards, String affinityKey) {
         this.mContext = context;
+        this.mShards = shards;
+        this.mAffinityKey = affinityKey;
     }
 
     @Override
@@ -81,8 +98,27 @@ public final class PluginExecutorServiceProviderImpl implements PluginExecutorSe
     @Override
     public boolean bindService() {
         Intent intent = new Intent(mContext, PluginExecutorService.class);
-        return mContext.bindService(
-                intent, Context.BIND_AUTO_CREATE, SINGLE_THREAD_EXECUTOR, mConnection);
+        if (mShards == null) {
+            return mContext.bindService(
+                    intent, Context.BIND_AUTO_CREATE, SINGLE_THREAD_EXECUTOR, mConnection);
+        }
+        synchronized (this) {
+            if (mShard == NO_SHARD) {
+                mShard = mShards.acquire(mAffinityKey);
+            }
+        }
+        // Each instance name gets its own isolated process.
+        boolean bound =
+                mContext.bindIsolatedService(
+                        intent,
+                        Context.BIND_AUTO_CREATE,
+                        PluginExecutorServiceShards.getInstanceName(mShard),
+                        SINGLE_THREAD_EXECUTOR,
+                        mConnection);
+        if (!bound) {
+            releaseShard();
+        }
+        return bound;
     }
 
     @Override
@@ -91,5 +127,13 @@ public final class PluginExecutorServiceProviderImpl implements PluginExecutorSe
             mContext.unbindService(mConnection);
             reset();
         }
+        releaseShard();
+    }
+
+    private synchronized void releaseShard() {
+        if (mShards != null && mShard != NO_SHARD) {
+            mShards.release(mShard);
+            mShard = NO_SHARD;
+        }
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns plugins to one of several isolated process instances (shards) of the {@link
+ * PluginExecutorService}. A plugin is assigned to the shard with the fewest bound plugins the
+ * first time it is seen, and stays on that shard afterwards so its warm state in that process is
+ * reused.
+ */
+public final class PluginExecutorServiceShards {
+    private static final String INSTANCE_NAME_PREFIX = "PluginExecutorService-";
+
+    private final int[] mBoundPluginCounts;
+    private final Map<String, Integer> mShardAssignments = new HashMap<>();
+
+    public PluginExecutorServiceShards(int shardCount) {
+        mBoundPluginCounts = new int[Math.max(1, shardCount)];
+    }
+
+    /** Returns the number of shards. */
+    public int getShardCount() {
+        return mBoundPluginCounts.length;
+    }
+
+    /**
+     * Returns the shard that a plugin with the given affinity key is bound to, and counts the
+     * plugin towards the load of that shard until {@link #release} is called.
+     */
+    public synchronized int acquire(String affinityKey) {
+        Integer shard = mShardAssignments.get(affinityKey);
+        if (shard == null) {
+            shard = getLeastLoadedShard();
+            mShardAssignments.put(affinityKey, shard);
+        }
+        ++mBoundPluginCounts[shard];
+        return shard;
+    }
+
+    /** Releases a plugin previously counted towards the load of a shard by {@link #acquire}. */
+    public synchronized void release(int shard) {
+        if (mBoundPluginCounts[shard] > 0) {
+            --mBoundPluginCounts[shard];
+        }
+    }
+
+    /** Returns the number of plugins currently bound to a shard. */
+    public synchronized int getBoundPluginCount(int shard) {
+        return mBoundPluginCounts[shard];
+    }
+
+    /** Returns the instance name used to bind to the isolated process of a shard. */
+    public static String getInstanceName(int shard) {
+        return INSTANCE_NAME_PREFIX + shard;
+    }
+
+    private int getLeastLoadedShard() {
+        int leastLoaded = 0;
+        for (int i = 1; i < mBoundPluginCounts.length; ++i) {
+            if (mBoundPluginCounts[i] < mBoundPluginCounts[leastLoaded]) {
+                leastLoaded = i;
+            }
+        }
+        return leastLoaded;
+    }
+}
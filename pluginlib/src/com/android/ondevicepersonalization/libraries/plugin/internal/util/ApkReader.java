@@ -16,23 +16,57 @@
 
 package com.android.ondevicepersonalization.libraries.plugin.internal.util;
 
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
-/** Util class to unzip and load code form plugin apks. */
+/**
+ * Util class to unzip and load code form plugin apks.
+ *
+ * <p>Archives are memory-mapped and their central directory is parsed directly, so that stored
+ * (uncompressed) dex entries are handed out as slices of the mapping without being copied onto
+ * the heap. Compressed entries are inflated straight into a buffer of their final size. Archives
+ * the central directory reader does not support (e.g. ZIP64) are read with {@link
+ * ZipInputStream}.
+ */
 public final class ApkReader {
+    private static final String TAG = "ApkReader";
     private static final String DEX_SUFFIX = ".dex";
     private static final int PAGE_SIZE_BYTES = 4_096;
+    private static final int INFLATE_CHUNK_BYTES = 64 * 1_024;
+
+    // Zip format constants, see APPNOTE.TXT sections 4.3.7, 4.3.12 and 4.3.16.
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int MAX_ZIP_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_MARKER = 0xffffffff;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
 
     /** Loads the plugin apk dex files into a ByteBuffer. */
     public static ByteBuffer[] loadPluginCode(FileInputStream pluginArchive) throws IOException {
@@ -43,29 +77,201 @@ public final class ApkReader {
     public static ByteBuffer[] loadPluginCode(Collection<FileInputStream> pluginArchives)
             throws IOException {
         ArrayList<ByteBuffer> dexes = new ArrayList<>();
-        byte[] buffer = new byte[PAGE_SIZE_BYTES];
         for (FileInputStream pluginArchive : pluginArchives) {
-            try (ZipInputStream archive = new ZipInputStream(pluginArchive)) {
-                ZipEntry entry;
-                while ((entry = archive.getNextEntry()) != null) {
-                    String fileName = getValidatedName(entry);
-
-                    // multidex support
-                    if (fileName.endsWith(DEX_SUFFIX)) {
-                        try (ByteArrayOutputStream decompressedFile = new ByteArrayOutputStream()) {
-                            int length;
-                            while ((length = archive.read(buffer, /*off=*/ 0, buffer.length))
-                                    >= 0) {
-                                decompressedFile.write(buffer, /*off=*/ 0, length);
-                            }
-                            dexes.add(ByteBuffer.wrap(decompressedFile.toByteArray()));
-                        }
+            MappedByteBuffer mappedArchive = mapArchive(pluginArchive);
+            List<ByteBuffer> archiveDexes =
+                    (mappedArchive != null) ? readDexEntries(mappedArchive) : null;
+            if (archiveDexes == null) {
+                archiveDexes = readDexEntriesFromStream(pluginArchive);
+            }
+            dexes.addAll(archiveDexes);
+        }
+
+        return dexes.toArray(new ByteBuffer[0]);
+    }
+
+    private static @Nullable MappedByteBuffer mapArchive(FileInputStream pluginArchive) {
+        try {
+            FileChannel channel = pluginArchive.getChannel();
+            // The mapping stays valid after the channel and its descriptor are closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, /*position=*/ 0, channel.size());
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not map plugin archive, falling back to streaming", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the dex entries of a mapped archive, or null if the archive cannot be read from its
+     * central directory.
+     */
+    @VisibleForTesting
+    static @Nullable List<ByteBuffer> readDexEntries(ByteBuffer archive) throws IOException {
+        archive.order(ByteOrder.LITTLE_ENDIAN);
+        int endOfCentralDir = findEndOfCentralDirectory(archive);
+        if (endOfCentralDir < 0) {
+            return null;
+        }
+        int entryCount = archive.getShort(endOfCentralDir + 10) & 0xffff;
+        int centralDirSize = archive.getInt(endOfCentralDir + 12);
+        int centralDirOffset = archive.getInt(endOfCentralDir + 16);
+        if (entryCount == 0xffff || centralDirSize == ZIP64_MARKER
+                || centralDirOffset == ZIP64_MARKER) {
+            return null;
+        }
+        if (centralDirOffset < 0 || centralDirSize < 0
+                || (long) centralDirOffset + centralDirSize > endOfCentralDir) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        List<ByteBuffer> dexes = new ArrayList<>();
+        int offset = centralDirOffset;
+        for (int i = 0; i < entryCount; ++i) {
+            if (offset + CENTRAL_HEADER_SIZE > endOfCentralDir
+                    || archive.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            int method = archive.getShort(offset + 10) & 0xffff;
+            int compressedSize = archive.getInt(offset + 20);
+            int uncompressedSize = archive.getInt(offset + 24);
+            int nameLength = archive.getShort(offset + 28) & 0xffff;
+            int extraLength = archive.getShort(offset + 30) & 0xffff;
+            int commentLength = archive.getShort(offset + 32) & 0xffff;
+            int localHeaderOffset = archive.getInt(offset + 42);
+            if (offset + CENTRAL_HEADER_SIZE + nameLength > endOfCentralDir) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            String name = getValidatedName(readName(archive, offset + CENTRAL_HEADER_SIZE,
+                    nameLength));
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            // multidex support
+            if (!name.endsWith(DEX_SUFFIX)) {
+                continue;
+            }
+            if (compressedSize == ZIP64_MARKER || uncompressedSize == ZIP64_MARKER
+                    || localHeaderOffset == ZIP64_MARKER) {
+                return null;
+            }
+            int dataOffset = getEntryDataOffset(archive, localHeaderOffset, centralDirOffset);
+            if (compressedSize < 0 || (long) dataOffset + compressedSize > centralDirOffset) {
+                throw new ZipException("Invalid size for " + name);
+            }
+            if (method == METHOD_STORED) {
+                dexes.add(slice(archive, dataOffset, compressedSize));
+            } else if (method == METHOD_DEFLATED) {
+                dexes.add(inflate(archive, dataOffset, compressedSize, uncompressedSize));
+            } else {
+                throw new ZipException("Unsupported compression method for " + name);
+            }
+        }
+        return dexes;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer archive) {
+        int minOffset =
+                Math.max(0, archive.limit() - END_OF_CENTRAL_DIR_SIZE - MAX_ZIP_COMMENT_SIZE);
+        for (int offset = archive.limit() - END_OF_CENTRAL_DIR_SIZE; offset >= minOffset;
+                --offset) {
+            if (archive.getInt(offset) == END_OF_CENTRAL_DIR_SIGNATURE) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static int getEntryDataOffset(
+            ByteBuffer archive, int localHeaderOffset, int centralDirOffset)
+            throws ZipException {
+        if (localHeaderOffset < 0
+                || localHeaderOffset + LOCAL_HEADER_SIZE > centralDirOffset
+                || archive.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local file header");
+        }
+        // The local header has its own name and extra field lengths, which may differ from the
+        // central directory's (e.g. alignment padding added by zipalign).
+        int nameLength = archive.getShort(localHeaderOffset + 26) & 0xffff;
+        int extraLength = archive.getShort(localHeaderOffset + 28) & 0xffff;
+        return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static String readName(ByteBuffer archive, int offset, int length) {
+        byte[] name = new byte[length];
+        ByteBuffer view = archive.duplicate();
+        view.position(offset);
+        view.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer slice(ByteBuffer archive, int offset, int length) {
+        ByteBuffer view = archive.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    private static ByteBuffer inflate(
+            ByteBuffer archive, int offset, int compressedSize, int uncompressedSize)
+            throws IOException {
+        if (uncompressedSize < 0) {
+            throw new ZipException("Invalid uncompressed size");
+        }
+        byte[] output = new byte[uncompressedSize];
+        byte[] input = new byte[Math.min(INFLATE_CHUNK_BYTES, Math.max(1, compressedSize))];
+        ByteBuffer compressed = slice(archive, offset, compressedSize);
+        Inflater inflater = new Inflater(/*nowrap=*/ true);
+        try {
+            int written = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int length = Math.min(input.length, compressed.remaining());
+                    if (length == 0) {
+                        throw new ZipException("Truncated compressed entry");
                     }
+                    compressed.get(input, /*off=*/ 0, length);
+                    inflater.setInput(input, /*off=*/ 0, length);
                 }
+                int inflated = inflater.inflate(output, written, output.length - written);
+                if (inflated == 0 && !inflater.finished() && !inflater.needsInput()) {
+                    // Either the output is full or the stream needs a preset dictionary.
+                    throw new ZipException("Compressed entry larger than declared size");
+                }
+                written += inflated;
+            }
+            if (written != uncompressedSize) {
+                throw new ZipException("Compressed entry smaller than declared size");
             }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed entry: " + e.getMessage());
+        } finally {
+            inflater.end();
         }
+        return ByteBuffer.wrap(output);
+    }
 
-        return dexes.toArray(new ByteBuffer[0]);
+    private static List<ByteBuffer> readDexEntriesFromStream(FileInputStream pluginArchive)
+            throws IOException {
+        List<ByteBuffer> dexes = new ArrayList<>();
+        byte[] buffer = new byte[PAGE_SIZE_BYTES];
+        try (ZipInputStream archive = new ZipInputStream(pluginArchive)) {
+            ZipEntry entry;
+            while ((entry = archive.getNextEntry()) != null) {
+                String fileName = getValidatedName(entry);
+
+                // multidex support
+                if (fileName.endsWith(DEX_SUFFIX)) {
+                    try (ByteArrayOutputStream decompressedFile = new ByteArrayOutputStream()) {
+                        int length;
+                        while ((length = archive.read(buffer, /*off=*/ 0, buffer.length))
+                                >= 0) {
+                            decompressedFile.write(buffer, /*off=*/ 0, length);
+                        }
+                        dexes.add(ByteBuffer.wrap(decompressedFile.toByteArray()));
+                    }
+                }
+            }
+        }
+        return dexes;
     }
 
     /**
@@ -73,9 +279,13 @@ public final class ApkReader {
      * attacks.
      */
     static String getValidatedName(ZipEntry zipEntry) throws ZipException {
+        return getValidatedName(zipEntry.getName());
+    }
+
+    /** Returns the name of a zip entry after verifying it does not contain a ".." element. */
+    static String getValidatedName(String name) throws ZipException {
         // Forked from com.google.android.libraries.security.zip.SafeZipEntry because it is not
         // available externally.
-        String name = zipEntry.getName();
         if (name.contains("..")) {
             // If the string does contain "..", break it down into its actual name
             // elements to ensure it actually contains ".." as a name, not just a
@@ -40,4 +40,45 @@ public interface Flags {
     default boolean getGlobalKillSwitch() {
         return GLOBAL_KILL_SWITCH;
     }
+
+    /**
+     * Deadline for blocking REMOTE_DATA and LOCAL_DATA calls made by vendor code in the isolated
+     * process.
+     */
+    long DATA_ACCESS_TIMEOUT_MILLIS = 1000;
+
+    default long getDataAccessTimeoutMillis() {
+        return DATA_ACCESS_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * How long LOCAL_DATA writes may stay in the in-memory write-behind buffer before they are
+     * committed. Zero writes them through to the database right away. Buffered writes are lost
+     * if the process dies before they are committed.
+     */
+    long LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS = 0;
+
+    default long getLocalDataWriteBehindDelayMillis() {
+        return LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS;
+    }
+
+    /**
+     * Number of buffered LOCAL_DATA keys of a vendor that triggers a commit before the delay
+     * passes.
+     */
+    int LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS = 256;
+
+    default int getLocalDataWriteBehindMaxPendingKeys() {
+        return LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS;
+    }
+
+    /**
+     * Time the maintenance job may spend on vacuuming, analyzing and checkpointing the databases.
+     * Steps that have not started when it runs out are left for the next run.
+     */
+    long DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS = 30_000;
+
+    default long getDatabaseMaintenanceTimeBudgetMillis() {
+        return DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS;
+    }
 }
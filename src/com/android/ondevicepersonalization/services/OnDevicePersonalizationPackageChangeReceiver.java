@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services;
+
+import android.annotation.NonNull;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * BroadcastReceiver used to notify in-memory state of the ODP service when a package is added,
+ * replaced or removed. Package broadcasts are not delivered to receivers declared in the
+ * manifest, so this receiver is registered at runtime by the first listener.
+ */
+public class OnDevicePersonalizationPackageChangeReceiver extends BroadcastReceiver {
+    private static final String TAG = "OnDevicePersonalizationPackageChangeReceiver";
+
+    /** Listener that is notified when an installed package changes. */
+    public interface Listener {
+        /**
+         * Called on the background executor after {@code packageName} has been added, replaced
+         * or removed. Listeners may call the package manager and write to the database.
+         */
+        void onPackageChanged(@NonNull String packageName);
+    }
+
+    private static final List<Listener> sListeners = new CopyOnWriteArrayList<>();
+    private static OnDevicePersonalizationPackageChangeReceiver sReceiver = null;
+
+    private final Executor mExecutor;
+
+    public OnDevicePersonalizationPackageChangeReceiver() {
+        this(OnDevicePersonalizationExecutors.getBackgroundExecutor());
+    }
+
+    @VisibleForTesting
+    public OnDevicePersonalizationPackageChangeReceiver(@NonNull Executor executor) {
+        mExecutor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Adds a listener for package changes, registering the receiver with the application context
+     * if it has not been registered yet.
+     */
+    public static void addListener(@NonNull Context context, @NonNull Listener listener) {
+        sListeners.add(Objects.requireNonNull(listener));
+        registerIfNeeded(context);
+    }
+
+    /** Removes a listener previously added with {@link #addListener}. */
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static void registerIfNeeded(@NonNull Context context) {
+        synchronized (OnDevicePersonalizationPackageChangeReceiver.class) {
+            if (sReceiver != null) {
+                return;
+            }
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addDataScheme("package");
+            OnDevicePersonalizationPackageChangeReceiver receiver =
+                    new OnDevicePersonalizationPackageChangeReceiver();
+            try {
+                context.getApplicationContext().registerReceiver(receiver, filter);
+                sReceiver = receiver;
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to register package change receiver.", e);
+            }
+        }
+    }
+
+    /** Called when a package broadcast is received. */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        String packageName = (data != null) ? data.getSchemeSpecificPart() : null;
+        if (packageName == null || packageName.isEmpty()) {
+            Log.d(TAG, "Received " + intent.getAction() + " without a package name");
+            return;
+        }
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+            // An update is in progress. ACTION_PACKAGE_REPLACED will follow.
+            return;
+        }
+        Log.d(TAG, "onReceive() " + intent.getAction() + " for " + packageName);
+        mExecutor.execute(() -> notifyListeners(packageName));
+    }
+
+    @VisibleForTesting
+    static void notifyListeners(@NonNull String packageName) {
+        for (Listener listener : sListeners) {
+            try {
+                listener.onPackageChanged(packageName);
+            } catch (Exception e) {
+                Log.e(TAG, "Listener failed for " + packageName, e);
+            }
+        }
+    }
+}
@@ -31,6 +31,17 @@ public final class PhFlags implements Flags {
     // Killswitch keys
     static final String KEY_GLOBAL_KILL_SWITCH = "global_kill_switch";
 
+    static final String KEY_DATA_ACCESS_TIMEOUT_MILLIS = "data_access_timeout_millis";
+
+    static final String KEY_LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS =
+            "local_data_write_behind_delay_millis";
+
+    static final String KEY_LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS =
+            "local_data_write_behind_max_pending_keys";
+
+    static final String KEY_DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS =
+            "database_maintenance_time_budget_millis";
+
     // SystemProperty prefix. SystemProperty is for overriding OnDevicePersonalization Configs.
     private static final String SYSTEM_PROPERTY_PREFIX = "debug.ondevicepersonalization.";
 
@@ -57,6 +68,46 @@ public final class PhFlags implements Flags {
                                 /* defaultValue= */ GLOBAL_KILL_SWITCH));
     }
 
+    @Override
+    public long getDataAccessTimeoutMillis() {
+        return SystemProperties.getLong(
+                        getSystemPropertyName(KEY_DATA_ACCESS_TIMEOUT_MILLIS),
+                        DeviceConfig.getLong(
+                                /* namespace= */ NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                                /* name= */ KEY_DATA_ACCESS_TIMEOUT_MILLIS,
+                                /* defaultValue= */ DATA_ACCESS_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    public long getLocalDataWriteBehindDelayMillis() {
+        return SystemProperties.getLong(
+                        getSystemPropertyName(KEY_LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS),
+                        DeviceConfig.getLong(
+                                /* namespace= */ NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                                /* name= */ KEY_LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS,
+                                /* defaultValue= */ LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS));
+    }
+
+    @Override
+    public int getLocalDataWriteBehindMaxPendingKeys() {
+        return SystemProperties.getInt(
+                        getSystemPropertyName(KEY_LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS),
+                        DeviceConfig.getInt(
+                                /* namespace= */ NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                                /* name= */ KEY_LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS,
+                                /* defaultValue= */ LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS));
+    }
+
+    @Override
+    public long getDatabaseMaintenanceTimeBudgetMillis() {
+        return SystemProperties.getLong(
+                        getSystemPropertyName(KEY_DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS),
+                        DeviceConfig.getLong(
+                                /* namespace= */ NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                                /* name= */ KEY_DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS,
+                                /* defaultValue= */ DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS));
+    }
+
     @VisibleForTesting
     static String getSystemPropertyName(String key) {
         return SYSTEM_PROPERTY_PREFIX + key;
@@ -26,23 +26,31 @@ import android.ondevicepersonalization.SlotResult;
 import android.ondevicepersonalization.aidl.IDataAccessService;
 import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.modules.utils.StringParceledListSlice;
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
 import com.android.ondevicepersonalization.services.data.events.Event;
 import com.android.ondevicepersonalization.services.data.events.EventUrlHelper;
 import com.android.ondevicepersonalization.services.data.events.EventUrlPayload;
-import com.android.ondevicepersonalization.services.data.vendor.LocalData;
+import com.android.ondevicepersonalization.services.data.vendor.KeyRangeScanner;
 import com.android.ondevicepersonalization.services.data.vendor.OnDevicePersonalizationLocalDataDao;
 import com.android.ondevicepersonalization.services.data.vendor.OnDevicePersonalizationVendorDataDao;
 import com.android.ondevicepersonalization.services.util.PackageUtils;
 
 import com.google.common.util.concurrent.ListeningExecutorService;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -119,14 +127,13 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
         mServicePackageName = Objects.requireNonNull(servicePackageName);
         mInjector = Objects.requireNonNull(injector);
         try {
+            String certDigest = PackageUtils.getCertDigest(mApplicationContext, servicePackageName);
             mVendorDataDao = mInjector.getVendorDataDao(
-                    mApplicationContext, servicePackageName,
-                    PackageUtils.getCertDigest(mApplicationContext, servicePackageName));
+                    mApplicationContext, servicePackageName, certDigest);
             mIncludeLocalData = includeLocalData;
             if (includeLocalData) {
                 mLocalDataDao = mInjector.getLocalDataDao(
-                        mApplicationContext, servicePackageName,
-                        PackageUtils.getCertDigest(mApplicationContext, servicePackageName));
+                        mApplicationContext, servicePackageName, certDigest);
             } else {
                 mLocalDataDao = null;
             }
@@ -159,6 +166,11 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
                 mInjector.getExecutor().execute(
                         () -> remoteDataKeyset(callback));
                 break;
+            case Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN:
+                KeyScan remoteScan = KeyScan.fromParams(params);
+                mInjector.getExecutor().execute(
+                        () -> remoteDataScan(remoteScan, callback));
+                break;
             case Constants.DATA_ACCESS_OP_LOCAL_DATA_LOOKUP:
                 if (!mIncludeLocalData) {
                     throw new IllegalStateException("LocalData is not included for this instance.");
@@ -178,6 +190,14 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
                 mInjector.getExecutor().execute(
                         () -> localDataKeyset(callback));
                 break;
+            case Constants.DATA_ACCESS_OP_LOCAL_DATA_SCAN:
+                if (!mIncludeLocalData) {
+                    throw new IllegalStateException("LocalData is not included for this instance.");
+                }
+                KeyScan localScan = KeyScan.fromParams(params);
+                mInjector.getExecutor().execute(
+                        () -> localDataScan(localScan, callback));
+                break;
             case Constants.DATA_ACCESS_OP_LOCAL_DATA_PUT:
                 if (!mIncludeLocalData) {
                     throw new IllegalStateException("LocalData is not included for this instance.");
@@ -202,6 +222,33 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
                 mInjector.getExecutor().execute(
                         () -> localDataDelete(deleteKey[0], callback));
                 break;
+            case Constants.DATA_ACCESS_OP_LOCAL_DATA_BATCH:
+                if (!mIncludeLocalData) {
+                    throw new IllegalStateException("LocalData is not included for this instance.");
+                }
+                // The batch is a plain Bundle, which is unparceled inline. A list slice
+                // would make this binder thread call back into the isolated process.
+                Bundle batch = params.getBundle(Constants.EXTRA_BATCH);
+                if (batch == null) {
+                    throw new IllegalArgumentException("Missing batch.");
+                }
+                HashMap<String, byte[]> changes = new HashMap<>();
+                long batchSizeBytes = 0;
+                for (String batchKey : batch.keySet()) {
+                    if (batchKey == null) {
+                        throw new IllegalArgumentException("Invalid key provided for batch.");
+                    }
+                    byte[] batchValue = batch.getByteArray(batchKey);
+                    batchSizeBytes += 2L * batchKey.length()
+                            + (batchValue != null ? batchValue.length : 0);
+                    changes.put(batchKey, batchValue);
+                }
+                if (batchSizeBytes > Constants.MAX_LOCAL_DATA_BATCH_SIZE_BYTES) {
+                    throw new IllegalArgumentException("Batch is too large.");
+                }
+                mInjector.getExecutor().execute(
+                        () -> localDataBatch(changes, callback));
+                break;
             case Constants.DATA_ACCESS_OP_GET_EVENT_URL:
                 if (mEventUrlQueryData == null) {
                     throw new IllegalArgumentException("EventUrl not available.");
@@ -226,29 +273,122 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
 
     private void remoteDataKeyset(@NonNull IDataAccessServiceCallback callback) {
         Bundle result = new Bundle();
-        result.putSerializable(Constants.EXTRA_RESULT,
-                new HashSet<>(mVendorDataDao.readAllVendorDataKeys()));
+        result.putParcelable(Constants.EXTRA_RESULT, new StringParceledListSlice(
+                new ArrayList<>(mVendorDataDao.readAllVendorDataKeys())));
         sendResult(result, callback);
     }
 
     private void localDataKeyset(@NonNull IDataAccessServiceCallback callback) {
         Bundle result = new Bundle();
-        result.putSerializable(Constants.EXTRA_RESULT,
-                new HashSet<>(mLocalDataDao.readAllLocalDataKeys()));
+        result.putParcelable(Constants.EXTRA_RESULT, new StringParceledListSlice(
+                new ArrayList<>(mLocalDataDao.readAllLocalDataKeys())));
         sendResult(result, callback);
     }
 
+    /** Range of keys requested by a scan operation. */
+    private static class KeyScan {
+        @Nullable final String mStartKey;
+        @Nullable final String mEndKey;
+        @Nullable final String mCursor;
+        final int mLimit;
+
+        KeyScan(@Nullable String startKey, @Nullable String endKey, @Nullable String cursor,
+                int limit) {
+            mStartKey = startKey;
+            mEndKey = endKey;
+            mCursor = cursor;
+            mLimit = limit;
+        }
+
+        static KeyScan fromParams(@NonNull Bundle params) {
+            int limit = params.getInt(Constants.EXTRA_SCAN_LIMIT);
+            if (limit <= 0 || limit > Constants.MAX_SCAN_LIMIT) {
+                throw new IllegalArgumentException("Invalid scan limit: " + limit);
+            }
+            String cursor = params.getString(Constants.EXTRA_SCAN_CURSOR);
+            String prefix = params.getString(Constants.EXTRA_SCAN_PREFIX);
+            if (prefix != null) {
+                return new KeyScan(prefix, KeyRangeScanner.getPrefixEnd(prefix), cursor, limit);
+            }
+            return new KeyScan(params.getString(Constants.EXTRA_SCAN_START_KEY),
+                    params.getString(Constants.EXTRA_SCAN_END_KEY), cursor, limit);
+        }
+    }
+
+    private void remoteDataScan(KeyScan scan, @NonNull IDataAccessServiceCallback callback) {
+        try {
+            // Read one extra key to find out whether there is another page.
+            List<String> keys = mVendorDataDao.scanVendorDataKeys(
+                    scan.mStartKey, scan.mEndKey, scan.mCursor, scan.mLimit + 1);
+            sendResult(createScanResult(keys, scan.mLimit), callback);
+        } catch (Exception e) {
+            sendError(callback);
+        }
+    }
+
+    private void localDataScan(KeyScan scan, @NonNull IDataAccessServiceCallback callback) {
+        try {
+            List<String> keys = mLocalDataDao.scanLocalDataKeys(
+                    scan.mStartKey, scan.mEndKey, scan.mCursor, scan.mLimit + 1);
+            sendResult(createScanResult(keys, scan.mLimit), callback);
+        } catch (Exception e) {
+            sendError(callback);
+        }
+    }
+
+    private static Bundle createScanResult(List<String> keys, int limit) {
+        Bundle result = new Bundle();
+        if (keys.size() > limit) {
+            keys = keys.subList(0, limit);
+            // Continue after the last returned key.
+            result.putString(Constants.EXTRA_SCAN_CURSOR, keys.get(limit - 1));
+        }
+        result.putStringArray(Constants.EXTRA_RESULT, keys.toArray(new String[0]));
+        return result;
+    }
+
     private void remoteDataLookup(String[] keys, @NonNull IDataAccessServiceCallback callback) {
         HashMap<String, byte[]> vendorData = new HashMap<>();
+        // Values stored as files are sent as read-only file descriptors, so that they are not
+        // copied into this process nor through the binder transaction.
+        Bundle fileResult = new Bundle();
+        List<ParcelFileDescriptor> openedFiles = new ArrayList<>();
         try {
+            Map<String, File> files = new HashMap<>();
+            Map<String, byte[]> rows = mVendorDataDao.readVendorDataRows(
+                    Arrays.asList(keys), files);
             for (String key : keys) {
-                vendorData.put(key, mVendorDataDao.readSingleVendorDataRow(key));
+                File file = files.get(key);
+                if (file == null) {
+                    vendorData.put(key, rows.get(key));
+                } else if (!fileResult.containsKey(key)) {
+                    ParcelFileDescriptor fd =
+                            ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+                    openedFiles.add(fd);
+                    fileResult.putParcelable(key, fd);
+                }
             }
             Bundle result = new Bundle();
-            result.putSerializable(Constants.EXTRA_RESULT, vendorData);
+            result.putParcelable(Constants.EXTRA_RESULT, new KeyValueParceledListSlice(vendorData));
+            if (!fileResult.isEmpty()) {
+                result.putBundle(Constants.EXTRA_FILE_RESULT, fileResult);
+            }
             sendResult(result, callback);
         } catch (Exception e) {
             sendError(callback);
+        } finally {
+            // The receiving process holds its own copies of the descriptors.
+            for (ParcelFileDescriptor fd : openedFiles) {
+                closeQuietly(fd);
+            }
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor fd) {
+        try {
+            fd.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close file descriptor", e);
         }
     }
 
@@ -259,7 +399,7 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
                 localData.put(key, mLocalDataDao.readSingleLocalDataRow(key));
             }
             Bundle result = new Bundle();
-            result.putSerializable(Constants.EXTRA_RESULT, localData);
+            result.putParcelable(Constants.EXTRA_RESULT, new KeyValueParceledListSlice(localData));
             sendResult(result, callback);
         } catch (Exception e) {
             sendError(callback);
@@ -268,28 +408,33 @@ public class DataAccessServiceImpl extends IDataAccessService.Stub {
 
     private void localDataPut(String key, byte[] data,
             @NonNull IDataAccessServiceCallback callback) {
-        HashMap<String, byte[]> localData = new HashMap<>();
-        try {
-            localData.put(key, mLocalDataDao.readSingleLocalDataRow(key));
-            if (!mLocalDataDao.updateOrInsertLocalData(
-                    new LocalData.Builder().setKey(key).setData(data).build())) {
-                sendError(callback);
-            }
-            Bundle result = new Bundle();
-            result.putSerializable(Constants.EXTRA_RESULT, localData);
-            sendResult(result, callback);
-        } catch (Exception e) {
-            sendError(callback);
-        }
+        HashMap<String, byte[]> changes = new HashMap<>();
+        changes.put(key, data);
+        localDataBatch(changes, callback);
     }
 
     private void localDataDelete(String key, @NonNull IDataAccessServiceCallback callback) {
-        HashMap<String, byte[]> localData = new HashMap<>();
+        HashMap<String, byte[]> changes = new HashMap<>();
+        changes.put(key, null);
+        localDataBatch(changes, callback);
+    }
+
+    /**
+     * Applies puts, and removals for keys mapped to null, in one transaction and returns the
+     * previous values.
+     */
+    private void localDataBatch(Map<String, byte[]> changes,
+            @NonNull IDataAccessServiceCallback callback) {
         try {
-            localData.put(key, mLocalDataDao.readSingleLocalDataRow(key));
-            mLocalDataDao.deleteLocalDataRow(key);
+            Map<String, byte[]> previousValues =
+                    mLocalDataDao.batchUpdateOrDeleteLocalData(changes);
+            if (previousValues == null) {
+                sendError(callback);
+                return;
+            }
             Bundle result = new Bundle();
-            result.putSerializable(Constants.EXTRA_RESULT, localData);
+            result.putParcelable(Constants.EXTRA_RESULT,
+                    new KeyValueParceledListSlice(previousValues));
             sendResult(result, callback);
         } catch (Exception e) {
             sendError(callback);
@@ -16,7 +16,9 @@
 
 package com.android.ondevicepersonalization.services.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -24,23 +26,42 @@ import android.util.Log;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.ondevicepersonalization.services.data.events.EventsContract;
 import com.android.ondevicepersonalization.services.data.events.QueriesContract;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackagesContract;
 import com.android.ondevicepersonalization.services.data.user.UserDataTables;
+import com.android.ondevicepersonalization.services.data.vendor.LocalDataContract;
+import com.android.ondevicepersonalization.services.data.vendor.VendorDataContract;
 import com.android.ondevicepersonalization.services.data.vendor.VendorSettingsContract;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Helper to manage the OnDevicePersonalization database.
+ * Helper to manage the main OnDevicePersonalization database, which holds the vendor data and
+ * the ODP package registry. The queries and events logs and the user data history have their own
+ * databases, see {@link OnDevicePersonalizationEventsDbHelper} and
+ * {@link OnDevicePersonalizationUserDataDbHelper}, so that each has its own write-ahead log.
  */
 public class OnDevicePersonalizationDbHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "OnDevicePersonalizationDbHelper";
 
-    private static final int DATABASE_VERSION = 1;
+    // Version 2 adds the file name column to the vendor data tables.
+    // Version 3 adds the ODP package registry tables.
+    // Version 4 rebuilds the vendor data and local data tables as WITHOUT ROWID tables.
+    // Version 5 moves the queries, events and user data tables to their own databases.
+    private static final int DATABASE_VERSION = 5;
+    private static final String REBUILT_TABLE_NAME_SUFFIX = "_rebuilt";
     private static final String DATABASE_NAME = "ondevicepersonalization.db";
 
     private static OnDevicePersonalizationDbHelper sSingleton = null;
 
+    private final Context mContext;
+    private final boolean mInMemory;
+
     private OnDevicePersonalizationDbHelper(Context context, String dbName) {
         super(context, dbName, null, DATABASE_VERSION);
+        mContext = context;
+        mInMemory = (dbName == null);
     }
 
     /** Returns an instance of the OnDevicePersonalizationDbHelper given a context. */
@@ -72,30 +93,168 @@ public class OnDevicePersonalizationDbHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(VendorSettingsContract.VendorSettingsEntry.CREATE_TABLE_STATEMENT);
 
-        // Queries and events tables.
-        db.execSQL(QueriesContract.QueriesEntry.CREATE_TABLE_STATEMENT);
-        db.execSQL(EventsContract.EventsEntry.CREATE_TABLE_STATEMENT);
-
-        // User data tables and indexes.
-        db.execSQL(UserDataTables.LocationHistory.CREATE_TABLE_STATEMENT);
-        db.execSQL(UserDataTables.LocationHistory.CREATE_INDEXES_STATEMENT);
-        db.execSQL(UserDataTables.AppUsageHistory.CREATE_TABLE_STATEMENT);
-        db.execSQL(UserDataTables.AppUsageHistory.CREATE_STARTING_TIME_SEC_INDEX_STATEMENT);
-        db.execSQL(UserDataTables.AppUsageHistory.CREATE_ENDING_TIME_SEC_INDEX_STATEMENT);
-        db.execSQL(UserDataTables.AppUsageHistory.CREATE_TOTAL_TIME_USED_SEC_INDEX_STATEMENT);
+        // ODP package registry tables.
+        db.execSQL(OdpPackagesContract.OdpPackagesEntry.CREATE_TABLE_STATEMENT);
+        db.execSQL(OdpPackagesContract.RegistryStateEntry.CREATE_TABLE_STATEMENT);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // TODO: handle upgrade when the db schema is changed.
         Log.d(TAG, "DB upgrade from " + oldVersion + " to " + newVersion);
-        throw new UnsupportedOperationException(
-                "Database upgrade for OnDevicePersonalization is unsupported");
+        if (oldVersion < 1 || oldVersion >= newVersion || newVersion > DATABASE_VERSION) {
+            throw new UnsupportedOperationException(
+                    "Database upgrade for OnDevicePersonalization is unsupported");
+        }
+        if (oldVersion < 2) {
+            for (String tableName : getTableNames(
+                    db, VendorDataContract.VendorDataEntry.TABLE_NAME_PREFIX)) {
+                db.execSQL(VendorDataContract.VendorDataEntry.getAddFileNameColumnStatement(
+                        tableName));
+            }
+        }
+        if (oldVersion < 3) {
+            db.execSQL(OdpPackagesContract.OdpPackagesEntry.CREATE_TABLE_STATEMENT);
+            db.execSQL(OdpPackagesContract.RegistryStateEntry.CREATE_TABLE_STATEMENT);
+        }
+        if (oldVersion < 4) {
+            // SQLite cannot change the layout of a table in place, so the rows are copied into a
+            // new table that then takes the name of the old one. The whole upgrade runs in one
+            // transaction, so a failed copy leaves the old tables untouched.
+            for (String tableName : getTableNames(
+                    db, VendorDataContract.VendorDataEntry.TABLE_NAME_PREFIX)) {
+                String rebuiltTableName = tableName + REBUILT_TABLE_NAME_SUFFIX;
+                db.execSQL(VendorDataContract.VendorDataEntry.getCreateTableIfNotExistsStatement(
+                        rebuiltTableName));
+                db.execSQL(VendorDataContract.VendorDataEntry.getCopyRowsStatement(
+                        tableName, rebuiltTableName));
+                replaceTable(db, tableName, rebuiltTableName);
+            }
+            for (String tableName : getTableNames(
+                    db, LocalDataContract.LocalDataEntry.TABLE_NAME_PREFIX)) {
+                String rebuiltTableName = tableName + REBUILT_TABLE_NAME_SUFFIX;
+                db.execSQL(LocalDataContract.LocalDataEntry.getCreateTableIfNotExistsStatement(
+                        rebuiltTableName));
+                db.execSQL(LocalDataContract.LocalDataEntry.getCopyRowsStatement(
+                        tableName, rebuiltTableName));
+                replaceTable(db, tableName, rebuiltTableName);
+            }
+        }
+        if (oldVersion < 5) {
+            // Events reference queries, so queries are moved first.
+            SQLiteOpenHelper eventsDbHelper = mInMemory
+                    ? OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext)
+                    : new OnDevicePersonalizationEventsDbHelper(
+                            mContext, OnDevicePersonalizationEventsDbHelper.DATABASE_NAME);
+            moveTables(db, eventsDbHelper, QueriesContract.QueriesEntry.TABLE_NAME,
+                    EventsContract.EventsEntry.TABLE_NAME);
+            SQLiteOpenHelper userDataDbHelper = mInMemory
+                    ? OnDevicePersonalizationUserDataDbHelper.getInstanceForTest(mContext)
+                    : new OnDevicePersonalizationUserDataDbHelper(
+                            mContext, OnDevicePersonalizationUserDataDbHelper.DATABASE_NAME);
+            moveTables(db, userDataDbHelper, UserDataTables.LocationHistory.TABLE_NAME,
+                    UserDataTables.AppUsageHistory.TABLE_NAME);
+            if (!mInMemory) {
+                // The helpers that stay in use are only created after this upgrade.
+                eventsDbHelper.close();
+                userDataDbHelper.close();
+            }
+        }
+    }
+
+    /**
+     * Copies the rows of tables into another database, then drops the tables. The copy commits
+     * before this database does, so rows are inserted with their ids and existing rows are
+     * ignored; repeating a move after a failed upgrade does not duplicate rows.
+     */
+    private static void moveTables(SQLiteDatabase db, SQLiteOpenHelper targetDbHelper,
+            String... tableNames) {
+        SQLiteDatabase targetDb = targetDbHelper.getWritableDatabase();
+        targetDb.beginTransaction();
+        try {
+            for (String tableName : tableNames) {
+                if (tableExists(db, tableName)) {
+                    copyRows(db, targetDb, tableName);
+                }
+            }
+            targetDb.setTransactionSuccessful();
+        } finally {
+            targetDb.endTransaction();
+        }
+        for (String tableName : tableNames) {
+            db.execSQL("DROP TABLE IF EXISTS " + tableName);
+        }
+    }
+
+    private static void copyRows(SQLiteDatabase fromDb, SQLiteDatabase toDb, String tableName) {
+        try (Cursor cursor = fromDb.rawQuery("SELECT * FROM " + tableName, null)) {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    String column = cursor.getColumnName(i);
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values.put(column, cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values.put(column, cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values.put(column, cursor.getString(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values.put(column, cursor.getBlob(i));
+                            break;
+                        default:
+                            values.putNull(column);
+                            break;
+                    }
+                }
+                toDb.insertWithOnConflict(tableName, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String tableName) {
+        try (Cursor cursor = db.rawQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{tableName})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private static void replaceTable(SQLiteDatabase db, String tableName,
+            String rebuiltTableName) {
+        db.execSQL("DROP TABLE " + tableName);
+        db.execSQL("ALTER TABLE " + rebuiltTableName + " RENAME TO " + tableName);
+    }
+
+    /**
+     * Returns the names of the tables with the given prefix. Vendor data and local data tables
+     * are created on the first download of each vendor, so they are found by name.
+     */
+    private static List<String> getTableNames(SQLiteDatabase db, String prefix) {
+        List<String> tableNames = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE ? ESCAPE '\\'",
+                new String[]{prefix.replace("_", "\\_") + "%"})) {
+            while (cursor.moveToNext()) {
+                tableNames.add(cursor.getString(0));
+            }
+        }
+        return tableNames;
     }
 
     @Override
     public void onConfigure(SQLiteDatabase db) {
         db.setForeignKeyConstraintsEnabled(true);
         db.enableWriteAheadLogging();
+        // Only takes effect before the first table is created. Existing databases are switched
+        // over by the maintenance job.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // Each vendor has its own tables, so their statements only stay prepared with a larger
+        // cache than the default.
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     }
 }
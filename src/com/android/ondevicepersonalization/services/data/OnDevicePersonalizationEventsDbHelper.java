@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.ondevicepersonalization.services.data.events.EventsContract;
+import com.android.ondevicepersonalization.services.data.events.QueriesContract;
+
+/**
+ * Helper to manage the database of the queries and events logs. The logs are written on the
+ * request path, so they are kept apart from the vendor data, whose downloads write large
+ * transactions.
+ */
+public class OnDevicePersonalizationEventsDbHelper extends SQLiteOpenHelper {
+
+    private static final String TAG = "OnDevicePersonalizationEventsDbHelper";
+
+    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "ondevicepersonalization_events.db";
+
+    private static OnDevicePersonalizationEventsDbHelper sSingleton = null;
+
+    OnDevicePersonalizationEventsDbHelper(Context context, String dbName) {
+        super(context, dbName, null, DATABASE_VERSION);
+    }
+
+    /** Returns an instance of the OnDevicePersonalizationEventsDbHelper given a context. */
+    public static OnDevicePersonalizationEventsDbHelper getInstance(Context context) {
+        synchronized (OnDevicePersonalizationEventsDbHelper.class) {
+            if (sSingleton == null) {
+                // The tables used to be in the main database and are moved here when it is
+                // upgraded, so it must be opened before this database is used.
+                OnDevicePersonalizationDbHelper.getInstance(context).getWritableDatabase();
+                sSingleton = new OnDevicePersonalizationEventsDbHelper(context, DATABASE_NAME);
+            }
+            return sSingleton;
+        }
+    }
+
+    /**
+     * Returns an instance of the OnDevicePersonalizationEventsDbHelper given a context. This is
+     * used for testing only.
+     */
+    @VisibleForTesting
+    public static OnDevicePersonalizationEventsDbHelper getInstanceForTest(Context context) {
+        synchronized (OnDevicePersonalizationEventsDbHelper.class) {
+            if (sSingleton == null) {
+                // Use null database name to make it in-memory
+                sSingleton = new OnDevicePersonalizationEventsDbHelper(context, null);
+            }
+            return sSingleton;
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(QueriesContract.QueriesEntry.CREATE_TABLE_STATEMENT);
+        db.execSQL(EventsContract.EventsEntry.CREATE_TABLE_STATEMENT);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "DB upgrade from " + oldVersion + " to " + newVersion);
+        throw new UnsupportedOperationException(
+                "Database upgrade for OnDevicePersonalization events is unsupported");
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.setForeignKeyConstraintsEnabled(true);
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+}
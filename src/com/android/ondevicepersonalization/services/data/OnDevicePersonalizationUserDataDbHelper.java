@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.ondevicepersonalization.services.data.user.UserDataTables;
+
+/**
+ * Helper to manage the database of the user data history, which is written by the user data
+ * collection job independently of vendor data downloads and requests.
+ */
+public class OnDevicePersonalizationUserDataDbHelper extends SQLiteOpenHelper {
+
+    private static final String TAG = "OnDevicePersonalizationUserDataDbHelper";
+
+    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "ondevicepersonalization_userdata.db";
+
+    private static OnDevicePersonalizationUserDataDbHelper sSingleton = null;
+
+    OnDevicePersonalizationUserDataDbHelper(Context context, String dbName) {
+        super(context, dbName, null, DATABASE_VERSION);
+    }
+
+    /** Returns an instance of the OnDevicePersonalizationUserDataDbHelper given a context. */
+    public static OnDevicePersonalizationUserDataDbHelper getInstance(Context context) {
+        synchronized (OnDevicePersonalizationUserDataDbHelper.class) {
+            if (sSingleton == null) {
+                // The tables used to be in the main database and are moved here when it is
+                // upgraded, so it must be opened before this database is used.
+                OnDevicePersonalizationDbHelper.getInstance(context).getWritableDatabase();
+                sSingleton = new OnDevicePersonalizationUserDataDbHelper(context, DATABASE_NAME);
+            }
+            return sSingleton;
+        }
+    }
+
+    /**
+     * Returns an instance of the OnDevicePersonalizationUserDataDbHelper given a context. This is
+     * used for testing only.
+     */
+    @VisibleForTesting
+    public static OnDevicePersonalizationUserDataDbHelper getInstanceForTest(Context context) {
+        synchronized (OnDevicePersonalizationUserDataDbHelper.class) {
+            if (sSingleton == null) {
+                // Use null database name to make it in-memory
+                sSingleton = new OnDevicePersonalizationUserDataDbHelper(context, null);
+            }
+            return sSingleton;
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(UserDataTables.LocationHistory.CREATE_TABLE_STATEMENT);
+        db.execSQL(UserDataTables.LocationHistory.CREATE_INDEXES_STATEMENT);
+        db.execSQL(UserDataTables.AppUsageHistory.CREATE_TABLE_STATEMENT);
+        db.execSQL(UserDataTables.AppUsageHistory.CREATE_STARTING_TIME_SEC_INDEX_STATEMENT);
+        db.execSQL(UserDataTables.AppUsageHistory.CREATE_ENDING_TIME_SEC_INDEX_STATEMENT);
+        db.execSQL(UserDataTables.AppUsageHistory.CREATE_TOTAL_TIME_USED_SEC_INDEX_STATEMENT);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "DB upgrade from " + oldVersion + " to " + newVersion);
+        throw new UnsupportedOperationException(
+                "Database upgrade for OnDevicePersonalization user data is unsupported");
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Small LRU cache of compiled {@link SQLiteStatement}s of a DAO, keyed by their SQL. Statements
+ * are compiled once per database and reused with new bind arguments, instead of building the
+ * SQL and its {@link android.content.ContentValues} on every write.
+ *
+ * <p>A statement holds its bind arguments, so it is taken out of the cache while it executes
+ * and put back afterwards. Threads that need the same SQL at the same time compile their own
+ * statement. No lock is held while SQLite executes, since an execution may wait for the
+ * database connection held by a transaction of another thread that uses this cache.
+ */
+public class SqlStatementCache {
+    private final Object mLock = new Object();
+    // Statements that are not executing.
+    @GuardedBy("mLock")
+    private final LinkedHashMap<String, SQLiteStatement> mStatements;
+    @GuardedBy("mLock")
+    @Nullable private SQLiteDatabase mDb = null;
+    // Incremented by clear(), so that statements taken out before it are not put back.
+    @GuardedBy("mLock")
+    private int mGeneration = 0;
+
+    public SqlStatementCache(int maxSize) {
+        mStatements = new LinkedHashMap<String, SQLiteStatement>(
+                maxSize, 0.75f, /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Executes an INSERT statement with the given bind arguments.
+     *
+     * @return The row id of the inserted row, or -1 if no row was inserted.
+     */
+    public long executeInsert(@NonNull SQLiteDatabase db, @NonNull String sql,
+            @NonNull Object... bindArgs) {
+        return execute(db, sql, bindArgs, SQLiteStatement::executeInsert);
+    }
+
+    /**
+     * Executes an UPDATE or DELETE statement with the given bind arguments.
+     *
+     * @return The number of rows changed.
+     */
+    public int executeUpdateDelete(@NonNull SQLiteDatabase db, @NonNull String sql,
+            @NonNull Object... bindArgs) {
+        return execute(db, sql, bindArgs, SQLiteStatement::executeUpdateDelete);
+    }
+
+    /**
+     * Closes all statements, e.g. because the table they use was dropped. Statements that are
+     * executing are closed when they finish.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            clearLocked();
+        }
+    }
+
+    private <T> T execute(SQLiteDatabase db, String sql, Object[] bindArgs,
+            Function<SQLiteStatement, T> execution) {
+        SQLiteStatement statement;
+        int generation;
+        synchronized (mLock) {
+            if (db != mDb) {
+                // Statements are compiled against a database, so they can't outlive it.
+                clearLocked();
+                mDb = db;
+            }
+            generation = mGeneration;
+            statement = mStatements.remove(sql);
+        }
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+        }
+        try {
+            for (int i = 0; i < bindArgs.length; i++) {
+                bind(statement, i + 1, bindArgs[i]);
+            }
+            return execution.apply(statement);
+        } finally {
+            statement.clearBindings();
+            release(sql, statement, generation);
+        }
+    }
+
+    /** Puts a statement back into the cache, or closes it if it can't be reused. */
+    private void release(String sql, SQLiteStatement statement, int generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration && !mStatements.containsKey(sql)) {
+                mStatements.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    @GuardedBy("mLock")
+    private void clearLocked() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mDb = null;
+        mGeneration++;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, @Nullable Object arg) {
+        if (arg == null) {
+            statement.bindNull(index);
+        } else if (arg instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) arg);
+        } else if (arg instanceof Boolean) {
+            statement.bindLong(index, (Boolean) arg ? 1 : 0);
+        } else if (arg instanceof Float || arg instanceof Double) {
+            statement.bindDouble(index, ((Number) arg).doubleValue());
+        } else if (arg instanceof Number) {
+            statement.bindLong(index, ((Number) arg).longValue());
+        } else {
+            statement.bindString(index, arg.toString());
+        }
+    }
+
+    /**
+     * Returns an INSERT statement with one parameter per column. If {@code orReplace} is true,
+     * the row replaces any row it conflicts with.
+     */
+    @NonNull
+    public static String createInsertSql(@NonNull String tableName, boolean orReplace,
+            @NonNull String... columns) {
+        StringBuilder sql = new StringBuilder(orReplace ? "INSERT OR REPLACE" : "INSERT")
+                .append(" INTO ").append(tableName).append(" (").append(String.join(",", columns))
+                .append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+}
@@ -17,26 +17,43 @@
 package com.android.ondevicepersonalization.services.data.events;
 
 import android.annotation.NonNull;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationEventsDbHelper;
+import com.android.ondevicepersonalization.services.data.SqlStatementCache;
 
 /**
  * Dao used to manage access to Events and Queries tables
  */
 public class EventsDao {
     private static final String TAG = "EventsDao";
+    private static final String INSERT_EVENT_SQL = SqlStatementCache.createInsertSql(
+            EventsContract.EventsEntry.TABLE_NAME, /* orReplace= */ false,
+            EventsContract.EventsEntry.QUERY_ID,
+            EventsContract.EventsEntry.SLOT_INDEX,
+            EventsContract.EventsEntry.TIME_MILLIS,
+            EventsContract.EventsEntry.SLOT_ID,
+            EventsContract.EventsEntry.BID_ID,
+            EventsContract.EventsEntry.SERVICE_PACKAGE_NAME,
+            EventsContract.EventsEntry.SLOT_POSITION,
+            EventsContract.EventsEntry.TYPE,
+            EventsContract.EventsEntry.EVENT_DATA);
+    private static final String INSERT_QUERY_SQL = SqlStatementCache.createInsertSql(
+            QueriesContract.QueriesEntry.TABLE_NAME, /* orReplace= */ false,
+            QueriesContract.QueriesEntry.TIME_MILLIS,
+            QueriesContract.QueriesEntry.SERVICE_PACKAGE_NAME,
+            QueriesContract.QueriesEntry.QUERY_DATA);
 
     private static EventsDao sSingleton;
 
-    private final OnDevicePersonalizationDbHelper mDbHelper;
+    private final OnDevicePersonalizationEventsDbHelper mDbHelper;
+    private final SqlStatementCache mStatements = new SqlStatementCache(/* maxSize= */ 2);
 
-    public EventsDao(@NonNull OnDevicePersonalizationDbHelper dbHelper) {
+    public EventsDao(@NonNull OnDevicePersonalizationEventsDbHelper dbHelper) {
         this.mDbHelper = dbHelper;
     }
 
@@ -44,8 +61,8 @@ public class EventsDao {
     public static EventsDao getInstance(@NonNull Context context) {
         synchronized (EventsDao.class) {
             if (sSingleton == null) {
-                OnDevicePersonalizationDbHelper dbHelper =
-                        OnDevicePersonalizationDbHelper.getInstance(context);
+                OnDevicePersonalizationEventsDbHelper dbHelper =
+                        OnDevicePersonalizationEventsDbHelper.getInstance(context);
                 sSingleton = new EventsDao(dbHelper);
             }
             return sSingleton;
@@ -60,8 +77,8 @@ public class EventsDao {
     public static EventsDao getInstanceForTest(@NonNull Context context) {
         synchronized (EventsDao.class) {
             if (sSingleton == null) {
-                OnDevicePersonalizationDbHelper dbHelper =
-                        OnDevicePersonalizationDbHelper.getInstanceForTest(context);
+                OnDevicePersonalizationEventsDbHelper dbHelper =
+                        OnDevicePersonalizationEventsDbHelper.getInstanceForTest(context);
                 sSingleton = new EventsDao(dbHelper);
             }
             return sSingleton;
@@ -76,19 +93,16 @@ public class EventsDao {
     public long insertEvent(@NonNull Event event) {
         try {
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            ContentValues values = new ContentValues();
-            values.put(EventsContract.EventsEntry.QUERY_ID, event.getQueryId());
-            values.put(EventsContract.EventsEntry.SLOT_INDEX, event.getSlotIndex());
-            values.put(EventsContract.EventsEntry.TIME_MILLIS, event.getTimeMillis());
-            values.put(EventsContract.EventsEntry.SLOT_ID, event.getSlotId());
-            values.put(EventsContract.EventsEntry.BID_ID, event.getBidId());
-            values.put(EventsContract.EventsEntry.SERVICE_PACKAGE_NAME,
-                    event.getServicePackageName());
-            values.put(EventsContract.EventsEntry.SLOT_POSITION, event.getSlotPosition());
-            values.put(EventsContract.EventsEntry.TYPE, event.getType());
-            values.put(EventsContract.EventsEntry.EVENT_DATA, event.getEventData());
-            return db.insert(EventsContract.EventsEntry.TABLE_NAME, null,
-                    values);
+            return mStatements.executeInsert(db, INSERT_EVENT_SQL,
+                    event.getQueryId(),
+                    event.getSlotIndex(),
+                    event.getTimeMillis(),
+                    event.getSlotId(),
+                    event.getBidId(),
+                    event.getServicePackageName(),
+                    event.getSlotPosition(),
+                    event.getType(),
+                    event.getEventData());
         } catch (SQLiteException e) {
             Log.e(TAG, "Failed to insert event", e);
         }
@@ -103,13 +117,10 @@ public class EventsDao {
     public long insertQuery(@NonNull Query query) {
         try {
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            ContentValues values = new ContentValues();
-            values.put(QueriesContract.QueriesEntry.TIME_MILLIS, query.getTimeMillis());
-            values.put(QueriesContract.QueriesEntry.SERVICE_PACKAGE_NAME,
-                    query.getServicePackageName());
-            values.put(QueriesContract.QueriesEntry.QUERY_DATA, query.getQueryData());
-            return db.insert(QueriesContract.QueriesEntry.TABLE_NAME, null,
-                    values);
+            return mStatements.executeInsert(db, INSERT_QUERY_SQL,
+                    query.getTimeMillis(),
+                    query.getServicePackageName(),
+                    query.getQueryData());
         } catch (SQLiteException e) {
             Log.e(TAG, "Failed to insert query", e);
         }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data.packages;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.Objects;
+
+/** An installed package with ODP settings, as recorded by the {@link OdpPackageRegistry}. */
+public class OdpPackage {
+    @NonNull private final String mPackageName;
+    @Nullable private final String mCertDigest;
+    private final long mLastUpdateTime;
+    @Nullable private final String mDownloadUrl;
+    @Nullable private final String mServiceName;
+
+    OdpPackage(@NonNull String packageName, @Nullable String certDigest, long lastUpdateTime,
+            @Nullable String downloadUrl, @Nullable String serviceName) {
+        mPackageName = Objects.requireNonNull(packageName);
+        mCertDigest = certDigest;
+        mLastUpdateTime = lastUpdateTime;
+        mDownloadUrl = downloadUrl;
+        mServiceName = serviceName;
+    }
+
+    /** Returns the name of the package. */
+    @NonNull public String getPackageName() {
+        return mPackageName;
+    }
+
+    /** Returns the certificate digest of the package, or null if it could not be read. */
+    @Nullable public String getCertDigest() {
+        return mCertDigest;
+    }
+
+    /** Returns the time of the last install or update of the package. */
+    public long getLastUpdateTime() {
+        return mLastUpdateTime;
+    }
+
+    /** Returns the download URL from the ODP settings, or null if it could not be read. */
+    @Nullable public String getDownloadUrl() {
+        return mDownloadUrl;
+    }
+
+    /** Returns the service name from the ODP settings, or null if it could not be read. */
+    @Nullable public String getServiceName() {
+        return mServiceName;
+    }
+
+    @Override
+    public String toString() {
+        return "OdpPackage{" + mPackageName + ", lastUpdateTime=" + mLastUpdateTime + "}";
+    }
+}
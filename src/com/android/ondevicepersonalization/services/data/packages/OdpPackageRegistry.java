@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data.packages;
+
+import static android.content.pm.PackageManager.GET_META_DATA;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.ondevicepersonalization.services.OnDevicePersonalizationPackageChangeReceiver;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.manifest.AppManifestConfigHelper;
+import com.android.ondevicepersonalization.services.util.PackageUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Persistent registry of the installed packages with ODP settings. The device is scanned once;
+ * after that, the registry is updated from package broadcasts while the service runs, and from
+ * {@link PackageManager#getChangedPackages(int)} for the changes made while it did not. Another
+ * full scan is only needed after a reboot, since the change sequence numbers start over then.
+ *
+ * <p>A package whose cert digest or ODP settings can't be read is left out, rather than stored
+ * without them, and read again by the next lookup.
+ */
+public class OdpPackageRegistry implements OnDevicePersonalizationPackageChangeReceiver.Listener {
+    private static final String TAG = "OdpPackageRegistry";
+
+    private static OdpPackageRegistry sSingleton = null;
+
+    @NonNull private final Context mContext;
+    @NonNull private final OnDevicePersonalizationDbHelper mDbHelper;
+    private final Object mLock = new Object();
+    // Null until loaded on first use.
+    @GuardedBy("mLock")
+    @Nullable private Map<String, OdpPackage> mPackages = null;
+    @GuardedBy("mLock")
+    private int mFullScanCount = 0;
+    // Packages that failed to be read, and are read again by the next lookup.
+    @GuardedBy("mLock")
+    private final Set<String> mRetryPackages = new HashSet<>();
+    // Number of refreshes started per package, so that a refresh does not overwrite the result
+    // of one that started after it.
+    @GuardedBy("mLock")
+    private final Map<String, Integer> mRefreshCounts = new HashMap<>();
+
+    @VisibleForTesting
+    OdpPackageRegistry(@NonNull Context context,
+            @NonNull OnDevicePersonalizationDbHelper dbHelper) {
+        mContext = Objects.requireNonNull(context);
+        mDbHelper = Objects.requireNonNull(dbHelper);
+    }
+
+    /** Returns the OdpPackageRegistry singleton. */
+    @NonNull public static OdpPackageRegistry getInstance(@NonNull Context context) {
+        synchronized (OdpPackageRegistry.class) {
+            if (sSingleton == null) {
+                sSingleton = new OdpPackageRegistry(context.getApplicationContext(),
+                        OnDevicePersonalizationDbHelper.getInstance(context));
+                OnDevicePersonalizationPackageChangeReceiver.addListener(context, sSingleton);
+            }
+            return sSingleton;
+        }
+    }
+
+    /** Returns the installed packages with ODP settings. */
+    @NonNull public List<OdpPackage> getOdpPackages() {
+        synchronized (mLock) {
+            return new ArrayList<>(getPackagesLocked().values());
+        }
+    }
+
+    /** Returns the given package if it is installed and has ODP settings, null otherwise. */
+    @Nullable public OdpPackage getOdpPackage(@NonNull String packageName) {
+        synchronized (mLock) {
+            return getPackagesLocked().get(packageName);
+        }
+    }
+
+    @Override
+    public void onPackageChanged(@NonNull String packageName) {
+        // The package is read without the lock, so that lookups don't wait for the package
+        // manager or for parsing the manifest.
+        OdpPackage existing;
+        int refreshCount;
+        synchronized (mLock) {
+            if (mPackages == null) {
+                // Loading the registry catches up with this change.
+                return;
+            }
+            existing = mPackages.get(packageName);
+            refreshCount = mRefreshCounts.merge(packageName, 1, Integer::sum);
+        }
+        PackageState state = readPackageState(packageName, existing);
+        synchronized (mLock) {
+            if (mRefreshCounts.get(packageName) == refreshCount) {
+                applyPackageStateLocked(packageName, state);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getFullScanCount() {
+        synchronized (mLock) {
+            return mFullScanCount;
+        }
+    }
+
+    @GuardedBy("mLock")
+    @NonNull
+    private Map<String, OdpPackage> getPackagesLocked() {
+        if (mPackages != null) {
+            retryPackagesLocked();
+            return mPackages;
+        }
+        mPackages = readPackages();
+        int bootCount = getBootCount();
+        long[] state = readState();
+        PackageManager pm = mContext.getPackageManager();
+        int sequenceNumber;
+        if (state != null && state[0] == bootCount) {
+            ChangedPackages changedPackages = pm.getChangedPackages((int) state[1]);
+            if (changedPackages == null) {
+                return mPackages;
+            }
+            for (String packageName : changedPackages.getPackageNames()) {
+                refreshPackageLocked(packageName);
+            }
+            sequenceNumber = changedPackages.getSequenceNumber();
+        } else {
+            // Changes made during the scan are caught up with next time.
+            ChangedPackages changedPackages = pm.getChangedPackages(0);
+            sequenceNumber = (changedPackages != null) ? changedPackages.getSequenceNumber() : 0;
+            scanInstalledPackagesLocked();
+        }
+        if (mRetryPackages.isEmpty()) {
+            writeState(bootCount, sequenceNumber);
+        }
+        // Otherwise the next load catches up from the previous state again, which includes the
+        // packages that failed.
+        return mPackages;
+    }
+
+    @GuardedBy("mLock")
+    private void retryPackagesLocked() {
+        if (mRetryPackages.isEmpty()) {
+            return;
+        }
+        for (String packageName : new ArrayList<>(mRetryPackages)) {
+            refreshPackageLocked(packageName);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scanInstalledPackagesLocked() {
+        Log.d(TAG, "Scanning installed packages");
+        ++mFullScanCount;
+        Map<String, OdpPackage> packages = new HashMap<>();
+        for (PackageInfo packageInfo : mContext.getPackageManager().getInstalledPackages(
+                PackageManager.PackageInfoFlags.of(GET_META_DATA))) {
+            if (AppManifestConfigHelper.manifestContainsOdpSettings(
+                    mContext, packageInfo.packageName)) {
+                OdpPackage odpPackage = createOdpPackage(packageInfo);
+                if (odpPackage != null) {
+                    packages.put(packageInfo.packageName, odpPackage);
+                } else {
+                    mRetryPackages.add(packageInfo.packageName);
+                }
+            }
+        }
+        mPackages = packages;
+        writePackages(packages);
+    }
+
+    @GuardedBy("mLock")
+    private void refreshPackageLocked(@NonNull String packageName) {
+        applyPackageStateLocked(packageName,
+                readPackageState(packageName, mPackages.get(packageName)));
+    }
+
+    @GuardedBy("mLock")
+    private void applyPackageStateLocked(@NonNull String packageName,
+            @NonNull PackageState state) {
+        if (state.mFailed) {
+            mRetryPackages.add(packageName);
+            return;
+        }
+        mRetryPackages.remove(packageName);
+        if (state.mOdpPackage == null) {
+            if (mPackages.remove(packageName) != null) {
+                Log.d(TAG, "Removing " + packageName);
+                deletePackage(packageName);
+            }
+            return;
+        }
+        if (state.mOdpPackage == mPackages.get(packageName)) {
+            return;
+        }
+        Log.d(TAG, "Updating " + packageName);
+        mPackages.put(packageName, state.mOdpPackage);
+        writePackage(state.mOdpPackage);
+    }
+
+    /** Reads a package from the package manager, reusing {@code existing} if it is current. */
+    @NonNull
+    private PackageState readPackageState(@NonNull String packageName,
+            @Nullable OdpPackage existing) {
+        PackageInfo packageInfo;
+        try {
+            packageInfo = mContext.getPackageManager().getPackageInfo(
+                    packageName, PackageManager.PackageInfoFlags.of(0));
+        } catch (PackageManager.NameNotFoundException e) {
+            packageInfo = null;
+        }
+        if (packageInfo == null
+                || !AppManifestConfigHelper.manifestContainsOdpSettings(mContext, packageName)) {
+            return PackageState.REMOVED;
+        }
+        if (existing != null && existing.getLastUpdateTime() == packageInfo.lastUpdateTime) {
+            return new PackageState(existing, /* failed= */ false);
+        }
+        OdpPackage odpPackage = createOdpPackage(packageInfo);
+        return (odpPackage != null)
+                ? new PackageState(odpPackage, /* failed= */ false) : PackageState.FAILED;
+    }
+
+    /** Returns the package with its ODP settings, or null if they could not be read. */
+    @Nullable
+    private OdpPackage createOdpPackage(PackageInfo packageInfo) {
+        String packageName = packageInfo.packageName;
+        String certDigest;
+        String downloadUrl;
+        String serviceName;
+        try {
+            certDigest = PackageUtils.getCertDigest(mContext, packageName);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get cert digest of " + packageName, e);
+            return null;
+        }
+        if (certDigest == null) {
+            Log.e(TAG, "Missing cert digest of " + packageName);
+            return null;
+        }
+        try {
+            downloadUrl = AppManifestConfigHelper.getDownloadUrlFromOdpSettings(
+                    mContext, packageName);
+            serviceName = AppManifestConfigHelper.getServiceNameFromOdpSettings(
+                    mContext, packageName);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to parse ODP settings of " + packageName, e);
+            return null;
+        }
+        return new OdpPackage(packageName, certDigest, packageInfo.lastUpdateTime, downloadUrl,
+                serviceName);
+    }
+
+    /** Outcome of reading a package from the package manager. */
+    private static final class PackageState {
+        static final PackageState REMOVED = new PackageState(null, /* failed= */ false);
+        static final PackageState FAILED = new PackageState(null, /* failed= */ true);
+
+        // The package, or null if it is not installed, has no ODP settings, or failed.
+        @Nullable final OdpPackage mOdpPackage;
+        final boolean mFailed;
+
+        PackageState(@Nullable OdpPackage odpPackage, boolean failed) {
+            mOdpPackage = odpPackage;
+            mFailed = failed;
+        }
+    }
+
+    private int getBootCount() {
+        return Settings.Global.getInt(
+                mContext.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+    }
+
+    private Map<String, OdpPackage> readPackages() {
+        Map<String, OdpPackage> packages = new HashMap<>();
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            String[] projection = {OdpPackagesContract.OdpPackagesEntry.PACKAGE_NAME,
+                    OdpPackagesContract.OdpPackagesEntry.CERT_DIGEST,
+                    OdpPackagesContract.OdpPackagesEntry.LAST_UPDATE_TIME,
+                    OdpPackagesContract.OdpPackagesEntry.DOWNLOAD_URL,
+                    OdpPackagesContract.OdpPackagesEntry.SERVICE_NAME};
+            try (Cursor cursor = db.query(
+                    OdpPackagesContract.OdpPackagesEntry.TABLE_NAME,
+                    projection,
+                    /* selection= */ null,
+                    /* selectionArgs= */ null,
+                    /* groupBy= */ null,
+                    /* having= */ null,
+                    /* orderBy= */ null
+            )) {
+                while (cursor.moveToNext()) {
+                    OdpPackage odpPackage = new OdpPackage(cursor.getString(0),
+                            cursor.getString(1), cursor.getLong(2), cursor.getString(3),
+                            cursor.getString(4));
+                    packages.put(odpPackage.getPackageName(), odpPackage);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read ODP packages", e);
+        }
+        return packages;
+    }
+
+    /** Returns the boot count and sequence number of the registry, or null if there are none. */
+    @Nullable
+    private long[] readState() {
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            String[] projection = {OdpPackagesContract.RegistryStateEntry.BOOT_COUNT,
+                    OdpPackagesContract.RegistryStateEntry.SEQUENCE_NUMBER};
+            try (Cursor cursor = db.query(
+                    OdpPackagesContract.RegistryStateEntry.TABLE_NAME,
+                    projection,
+                    /* selection= */ null,
+                    /* selectionArgs= */ null,
+                    /* groupBy= */ null,
+                    /* having= */ null,
+                    /* orderBy= */ null
+            )) {
+                if (cursor.moveToFirst()) {
+                    return new long[] {cursor.getLong(0), cursor.getLong(1)};
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to read ODP package registry state", e);
+        }
+        return null;
+    }
+
+    private void writeState(int bootCount, int sequenceNumber) {
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(OdpPackagesContract.RegistryStateEntry.ID, 0);
+            values.put(OdpPackagesContract.RegistryStateEntry.BOOT_COUNT, bootCount);
+            values.put(OdpPackagesContract.RegistryStateEntry.SEQUENCE_NUMBER, sequenceNumber);
+            db.insertWithOnConflict(OdpPackagesContract.RegistryStateEntry.TABLE_NAME, null,
+                    values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to write ODP package registry state", e);
+        }
+    }
+
+    private void writePackages(Map<String, OdpPackage> packages) {
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                db.delete(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME, null, null);
+                for (OdpPackage odpPackage : packages.values()) {
+                    if (db.insertWithOnConflict(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME,
+                            null, toContentValues(odpPackage),
+                            SQLiteDatabase.CONFLICT_REPLACE) == -1) {
+                        // Don't finalize the transaction.
+                        return;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to write ODP packages", e);
+        }
+    }
+
+    private void writePackage(OdpPackage odpPackage) {
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.insertWithOnConflict(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME, null,
+                    toContentValues(odpPackage), SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to write ODP package " + odpPackage.getPackageName(), e);
+        }
+    }
+
+    private static ContentValues toContentValues(OdpPackage odpPackage) {
+        ContentValues values = new ContentValues();
+        values.put(OdpPackagesContract.OdpPackagesEntry.PACKAGE_NAME,
+                odpPackage.getPackageName());
+        values.put(OdpPackagesContract.OdpPackagesEntry.CERT_DIGEST, odpPackage.getCertDigest());
+        values.put(OdpPackagesContract.OdpPackagesEntry.LAST_UPDATE_TIME,
+                odpPackage.getLastUpdateTime());
+        values.put(OdpPackagesContract.OdpPackagesEntry.DOWNLOAD_URL,
+                odpPackage.getDownloadUrl());
+        values.put(OdpPackagesContract.OdpPackagesEntry.SERVICE_NAME,
+                odpPackage.getServiceName());
+        return values;
+    }
+
+    private void deletePackage(String packageName) {
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.delete(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME,
+                    OdpPackagesContract.OdpPackagesEntry.PACKAGE_NAME + " = ?",
+                    new String[] {packageName});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to delete ODP package " + packageName, e);
+        }
+    }
+}
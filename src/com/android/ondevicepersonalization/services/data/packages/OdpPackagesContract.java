@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data.packages;
+
+import android.provider.BaseColumns;
+
+/** Contract for the tables of the ODP package registry. Defines the tables. */
+public class OdpPackagesContract {
+    private OdpPackagesContract() {
+    }
+
+    /**
+     * Table containing the installed packages with ODP settings. Each row in the table
+     * represents a single package.
+     */
+    public static class OdpPackagesEntry implements BaseColumns {
+        public static final String TABLE_NAME = "odp_packages";
+        /** Name of the package */
+        public static final String PACKAGE_NAME = "packageName";
+        /** Certificate digest of the package */
+        public static final String CERT_DIGEST = "certDigest";
+        /** Time of the last install or update of the package, from its PackageInfo */
+        public static final String LAST_UPDATE_TIME = "lastUpdateTime";
+        /** Download URL from the ODP settings of the package */
+        public static final String DOWNLOAD_URL = "downloadUrl";
+        /** Service name from the ODP settings of the package */
+        public static final String SERVICE_NAME = "serviceName";
+        public static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS "
+                + TABLE_NAME + " ("
+                + PACKAGE_NAME + " TEXT NOT NULL,"
+                + CERT_DIGEST + " TEXT NULL,"
+                + LAST_UPDATE_TIME + " INTEGER NOT NULL,"
+                + DOWNLOAD_URL + " TEXT NULL,"
+                + SERVICE_NAME + " TEXT NULL,"
+                + "PRIMARY KEY(" + PACKAGE_NAME + "))";
+
+        private OdpPackagesEntry() {
+        }
+    }
+
+    /**
+     * Table containing the single row that records up to which package change the registry is
+     * up to date.
+     */
+    public static class RegistryStateEntry implements BaseColumns {
+        public static final String TABLE_NAME = "odp_package_registry_state";
+        /** Always 0, so that the table has at most one row */
+        public static final String ID = "id";
+        /** Boot count of the device when the state was recorded */
+        public static final String BOOT_COUNT = "bootCount";
+        /** Package change sequence number of the boot, see PackageManager#getChangedPackages */
+        public static final String SEQUENCE_NUMBER = "sequenceNumber";
+        public static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS "
+                + TABLE_NAME + " ("
+                + ID + " INTEGER NOT NULL CHECK(" + ID + " = 0),"
+                + BOOT_COUNT + " INTEGER NOT NULL,"
+                + SEQUENCE_NUMBER + " INTEGER NOT NULL,"
+                + "PRIMARY KEY(" + ID + "))";
+
+        private RegistryStateEntry() {
+        }
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.android.ondevicepersonalization.services.data.user;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -24,7 +23,8 @@ import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationUserDataDbHelper;
+import com.android.ondevicepersonalization.services.data.SqlStatementCache;
 
 import java.util.Calendar;
 import java.util.List;
@@ -32,12 +32,26 @@ import java.util.List;
 /** DAO for accessing to vendor data tables. */
 public class UserDataDao {
     private static final String TAG = "UserDataDao";
+    private static final String INSERT_LOCATION_HISTORY_SQL = SqlStatementCache.createInsertSql(
+            UserDataTables.LocationHistory.TABLE_NAME, /* orReplace= */ true,
+            UserDataTables.LocationHistory.TIME_SEC,
+            UserDataTables.LocationHistory.LATITUDE,
+            UserDataTables.LocationHistory.LONGITUDE,
+            UserDataTables.LocationHistory.SOURCE,
+            UserDataTables.LocationHistory.IS_PRECISE);
+    private static final String INSERT_APP_USAGE_HISTORY_SQL = SqlStatementCache.createInsertSql(
+            UserDataTables.AppUsageHistory.TABLE_NAME, /* orReplace= */ true,
+            UserDataTables.AppUsageHistory.PACKAGE_NAME,
+            UserDataTables.AppUsageHistory.STARTING_TIME_SEC,
+            UserDataTables.AppUsageHistory.ENDING_TIME_SEC,
+            UserDataTables.AppUsageHistory.TOTAL_TIME_USED_SEC);
 
     private static UserDataDao sUserDataDao;
-    private final OnDevicePersonalizationDbHelper mDbHelper;
+    private final OnDevicePersonalizationUserDataDbHelper mDbHelper;
+    private final SqlStatementCache mStatements = new SqlStatementCache(/* maxSize= */ 2);
     public static final int TTL_IN_MEMORY_DAYS = 30;
 
-    private UserDataDao(OnDevicePersonalizationDbHelper dbHelper) {
+    private UserDataDao(OnDevicePersonalizationUserDataDbHelper dbHelper) {
         this.mDbHelper = dbHelper;
     }
 
@@ -51,7 +65,7 @@ public class UserDataDao {
         synchronized (UserDataDao.class) {
             if (sUserDataDao == null) {
                 sUserDataDao = new UserDataDao(
-                    OnDevicePersonalizationDbHelper.getInstance(context));
+                    OnDevicePersonalizationUserDataDbHelper.getInstance(context));
             }
             return sUserDataDao;
         }
@@ -65,7 +79,7 @@ public class UserDataDao {
         synchronized (UserDataDao.class) {
             if (sUserDataDao == null) {
                 sUserDataDao = new UserDataDao(
-                    OnDevicePersonalizationDbHelper.getInstanceForTest(context));
+                    OnDevicePersonalizationUserDataDbHelper.getInstanceForTest(context));
             }
             return sUserDataDao;
         }
@@ -83,14 +97,8 @@ public class UserDataDao {
             if (db == null) {
                 return false;
             }
-            ContentValues values = new ContentValues();
-            values.put(UserDataTables.LocationHistory.TIME_SEC, timeSec);
-            values.put(UserDataTables.LocationHistory.LATITUDE, latitude);
-            values.put(UserDataTables.LocationHistory.LONGITUDE, longitude);
-            values.put(UserDataTables.LocationHistory.SOURCE, source);
-            values.put(UserDataTables.LocationHistory.IS_PRECISE, isPrecise);
-            return db.insertWithOnConflict(UserDataTables.LocationHistory.TABLE_NAME, null, values,
-                    SQLiteDatabase.CONFLICT_REPLACE) != -1;
+            return mStatements.executeInsert(db, INSERT_LOCATION_HISTORY_SQL,
+                    timeSec, latitude, longitude, source, isPrecise) != -1;
         } catch (SQLiteException e) {
             Log.e(TAG, "Failed to insert location history data", e);
             return false;
@@ -106,13 +114,8 @@ public class UserDataDao {
                                              long endingTimeSec, long totalTimeUsedSec) {
         try {
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
-            ContentValues values = new ContentValues();
-            values.put(UserDataTables.AppUsageHistory.PACKAGE_NAME, packageName);
-            values.put(UserDataTables.AppUsageHistory.STARTING_TIME_SEC, startingTimeSec);
-            values.put(UserDataTables.AppUsageHistory.ENDING_TIME_SEC, endingTimeSec);
-            values.put(UserDataTables.AppUsageHistory.TOTAL_TIME_USED_SEC, totalTimeUsedSec);
-            return db.insertWithOnConflict(UserDataTables.AppUsageHistory.TABLE_NAME, null, values,
-                    SQLiteDatabase.CONFLICT_REPLACE) != -1;
+            return mStatements.executeInsert(db, INSERT_APP_USAGE_HISTORY_SQL,
+                    packageName, startingTimeSec, endingTimeSec, totalTimeUsedSec) != -1;
         } catch (SQLiteException e) {
             Log.e(TAG, "Failed to insert app usage history data", e);
             return false;
@@ -53,10 +53,9 @@ import com.google.mobiledatadownload.ClientConfigProto.ClientFileGroup;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -118,19 +117,39 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
 
     private ListenableFuture<Void> processDownloadedJsonFile(Uri uri) throws IOException,
             PackageManager.NameNotFoundException, InterruptedException, ExecutionException {
+        // The contents are staged in a file rather than parsed into memory, as downloads can be
+        // larger than the heap of the service.
+        StagedVendorData stagedData = StagedVendorData.create(mContext.getCacheDir());
+        ListenableFuture<Void> future = null;
+        try {
+            future = processDownloadedJsonFile(uri, stagedData);
+            return future;
+        } finally {
+            if (future == null) {
+                stagedData.close();
+            } else {
+                future.addListener(stagedData::close,
+                        OnDevicePersonalizationExecutors.getBackgroundExecutor());
+            }
+        }
+    }
+
+    private ListenableFuture<Void> processDownloadedJsonFile(Uri uri,
+            StagedVendorData stagedData) throws IOException,
+            PackageManager.NameNotFoundException, InterruptedException, ExecutionException {
         long syncToken = -1;
-        Map<String, VendorData> vendorDataMap = null;
 
         SynchronousFileStorage fileStorage = MobileDataDownloadFactory.getFileStorage(mContext);
         try (InputStream in = fileStorage.open(uri, ReadStreamOpener.create())) {
-            try (JsonReader reader = new JsonReader(new InputStreamReader(in))) {
+            try (JsonReader reader = new JsonReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8))) {
                 reader.beginObject();
                 while (reader.hasNext()) {
                     String name = reader.nextName();
                     if (name.equals("syncToken")) {
                         syncToken = reader.nextLong();
                     } else if (name.equals("contents")) {
-                        vendorDataMap = readContentsArray(reader);
+                        readContentsArray(reader, stagedData);
                     } else {
                         reader.skipValue();
                     }
@@ -138,12 +157,13 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
                 reader.endObject();
             }
         }
+        stagedData.finishStaging();
 
         if (syncToken == -1 || !validateSyncToken(syncToken)) {
             Log.d(TAG, mPackageName + " downloaded JSON file has invalid syncToken provided");
             return Futures.immediateFuture(null);
         }
-        if (vendorDataMap == null || vendorDataMap.size() == 0) {
+        if (stagedData.size() == 0) {
             Log.d(TAG, mPackageName + " downloaded JSON file has no content provided");
             return Futures.immediateFuture(null);
         }
@@ -158,7 +178,6 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
             return Futures.immediateFuture(null);
         }
 
-        Map<String, VendorData> finalVendorDataMap = vendorDataMap;
         long finalSyncToken = syncToken;
         try {
             return FluentFuture.from(ProcessUtils.loadIsolatedService(
@@ -167,10 +186,10 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
                             result ->
                                     executeDownloadHandler(
                                             result,
-                                            finalVendorDataMap),
+                                            stagedData),
                             OnDevicePersonalizationExecutors.getBackgroundExecutor())
                     .transform(pluginResult -> filterAndStoreData(pluginResult, finalSyncToken,
-                                    finalVendorDataMap),
+                                    stagedData),
                             OnDevicePersonalizationExecutors.getBackgroundExecutor())
                     .catching(
                             Exception.class,
@@ -186,9 +205,8 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
     }
 
     private Void filterAndStoreData(Bundle pluginResult, long syncToken,
-            Map<String, VendorData> vendorDataMap) {
+            StagedVendorData stagedData) {
         Log.d(TAG, "Plugin filter code completed successfully");
-        List<VendorData> filteredList = new ArrayList<>();
         DownloadOutput downloadResult = pluginResult.getParcelable(
                 Constants.EXTRA_RESULT, DownloadOutput.class);
         List<String> retainedKeys = downloadResult.getKeysToRetain();
@@ -196,34 +214,27 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
             // TODO(b/270710021): Determine how to correctly handle null retainedKeys.
             return null;
         }
-        for (String key : retainedKeys) {
-            if (vendorDataMap.containsKey(key)) {
-                filteredList.add(vendorDataMap.get(key));
-            }
-        }
-        mDao.batchUpdateOrInsertVendorDataTransaction(filteredList, retainedKeys,
-                syncToken);
+        // The retained entries are streamed from the staging file into the transaction.
+        mDao.batchUpdateOrInsertVendorDataTransaction(
+                stagedData.iterator(new HashSet<>(retainedKeys)), retainedKeys, syncToken);
         return null;
     }
 
     private ListenableFuture<Bundle> executeDownloadHandler(
             IsolatedServiceInfo isolatedServiceInfo,
-            Map<String, VendorData> vendorDataMap) {
+            StagedVendorData stagedData) {
         Bundle pluginParams = new Bundle();
         DataAccessServiceImpl binder = new DataAccessServiceImpl(
                 mPackageName, mContext, true, null);
         pluginParams.putBinder(Constants.EXTRA_DATA_ACCESS_SERVICE_BINDER, binder);
 
-        List<String> keys = new ArrayList<>();
-        List<byte[]> values = new ArrayList<>();
-        for (String key : vendorDataMap.keySet()) {
-            keys.add(key);
-            values.add(vendorDataMap.get(key).getData());
-        }
-        StringParceledListSlice keysListSlice = new StringParceledListSlice(keys);
+        StringParceledListSlice keysListSlice =
+                new StringParceledListSlice(stagedData.getKeys());
         // This needs to be set to a small number >0 for the parcel.
         keysListSlice.setInlineCountLimit(1);
-        ByteArrayParceledListSlice valuesListSlice = new ByteArrayParceledListSlice(values);
+        // The values are read from the staging file as the slice is sent in chunks.
+        ByteArrayParceledListSlice valuesListSlice =
+                new ByteArrayParceledListSlice(stagedData.getValues());
         valuesListSlice.setInlineCountLimit(1);
 
         DownloadInputParcel downloadInputParcel = new DownloadInputParcel.Builder()
@@ -239,18 +250,16 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
                 pluginParams);
     }
 
-    private Map<String, VendorData> readContentsArray(JsonReader reader) throws IOException {
-        Map<String, VendorData> vendorDataMap = new HashMap<>();
+    private void readContentsArray(JsonReader reader, StagedVendorData stagedData)
+            throws IOException {
         reader.beginArray();
         while (reader.hasNext()) {
             VendorData data = readContent(reader);
             if (data != null) {
-                vendorDataMap.put(data.getKey(), data);
+                stagedData.add(data.getKey(), data.getData());
             }
         }
         reader.endArray();
-
-        return vendorDataMap;
     }
 
     private VendorData readContent(JsonReader reader) throws IOException {
@@ -262,7 +271,7 @@ public class OnDevicePersonalizationDataProcessingAsyncCallable implements Async
             if (name.equals("key")) {
                 key = reader.nextString();
             } else if (name.equals("data")) {
-                data = reader.nextString().getBytes();
+                data = reader.nextString().getBytes(StandardCharsets.UTF_8);
             } else {
                 reader.skipValue();
             }
@@ -17,7 +17,6 @@
 package com.android.ondevicepersonalization.services.download;
 
 import static android.app.job.JobScheduler.RESULT_FAILURE;
-import static android.content.pm.PackageManager.GET_META_DATA;
 
 import android.app.job.JobInfo;
 import android.app.job.JobParameters;
@@ -25,13 +24,12 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.util.Log;
 
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationConfig;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
-import com.android.ondevicepersonalization.services.manifest.AppManifestConfigHelper;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackage;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackageRegistry;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -44,7 +42,7 @@ import java.util.List;
  */
 public class OnDevicePersonalizationDownloadProcessingJobService extends JobService {
     public static final String TAG = "OnDevicePersonalizationDownloadProcessingJobService";
-    private List<ListenableFuture<Void>> mFutures;
+    private ListenableFuture<Void> mFuture;
 
     /**
      * Schedules a unique instance of OnDevicePersonalizationDownloadProcessingJobService to be run.
@@ -73,19 +71,24 @@ public class OnDevicePersonalizationDownloadProcessingJobService extends JobServ
     @Override
     public boolean onStartJob(JobParameters params) {
         Log.d(TAG, "onStartJob()");
-        mFutures = new ArrayList<>();
-        for (PackageInfo packageInfo : this.getPackageManager().getInstalledPackages(
-                PackageManager.PackageInfoFlags.of(GET_META_DATA))) {
-            String packageName = packageInfo.packageName;
-            if (AppManifestConfigHelper.manifestContainsOdpSettings(
-                    this, packageName)) {
-                mFutures.add(Futures.submitAsync(
-                        new OnDevicePersonalizationDataProcessingAsyncCallable(packageName,
-                                this),
+        Context context = this;
+        // Loading the registry may open the database and scan the installed packages, so it is
+        // not done on the main thread.
+        ListenableFuture<List<OdpPackage>> odpPackages = Futures.submit(
+                () -> OdpPackageRegistry.getInstance(context).getOdpPackages(),
+                OnDevicePersonalizationExecutors.getBackgroundExecutor());
+        mFuture = Futures.transformAsync(odpPackages, packages -> {
+            List<ListenableFuture<Void>> futures = new ArrayList<>();
+            for (OdpPackage odpPackage : packages) {
+                futures.add(Futures.submitAsync(
+                        new OnDevicePersonalizationDataProcessingAsyncCallable(
+                                odpPackage.getPackageName(), context),
                         OnDevicePersonalizationExecutors.getBackgroundExecutor()));
             }
-        }
-        Futures.whenAllComplete(mFutures).call(() -> {
+            return Futures.whenAllComplete(futures).call(() -> null,
+                    OnDevicePersonalizationExecutors.getLightweightExecutor());
+        }, OnDevicePersonalizationExecutors.getBackgroundExecutor());
+        Futures.whenAllComplete(mFuture).call(() -> {
             jobFinished(params, /* wantsReschedule */ false);
             return null;
         }, OnDevicePersonalizationExecutors.getLightweightExecutor());
@@ -95,10 +98,9 @@ public class OnDevicePersonalizationDownloadProcessingJobService extends JobServ
 
     @Override
     public boolean onStopJob(JobParameters params) {
-        if (mFutures != null) {
-            for (ListenableFuture<Void> f : mFutures) {
-                f.cancel(true);
-            }
+        if (mFuture != null) {
+            // Also cancels the processing of each package.
+            mFuture.cancel(true);
         }
         // Reschedule the job since it ended before finishing
         return true;
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.download;
+
+import android.annotation.NonNull;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.ondevicepersonalization.services.data.vendor.VendorData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Downloaded vendor data staged in a file, so that the contents of a download are never all held
+ * in memory. Only the keys are kept in memory. Values are read back from the file one at a time,
+ * in the order they were added. A key that is added more than once keeps its last value.
+ */
+class StagedVendorData implements Closeable {
+    private static final String TAG = "StagedVendorData";
+    private static final String FILE_PREFIX = "vendor_data_";
+    private static final String FILE_SUFFIX = ".staged";
+
+    @NonNull private final File mFile;
+    private DataOutputStream mOut;
+    // Index of the record holding the value of each key.
+    private final Map<String, Integer> mRecordIndexes = new HashMap<>();
+    private int mRecordCount = 0;
+    // Records that hold the value of a key, in file order, and the key of each of them.
+    private int[] mRecords;
+    private List<String> mKeys;
+
+    private StagedVendorData(@NonNull File file) throws IOException {
+        mFile = file;
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /** Creates an empty staging file in the given directory. */
+    @NonNull static StagedVendorData create(@NonNull File dir) throws IOException {
+        return new StagedVendorData(File.createTempFile(FILE_PREFIX, FILE_SUFFIX, dir));
+    }
+
+    /** Appends an entry to the staging file. */
+    void add(@NonNull String key, @NonNull byte[] data) throws IOException {
+        if (mOut == null) {
+            throw new IllegalStateException("Staging is finished");
+        }
+        writeBytes(mOut, key.getBytes(StandardCharsets.UTF_8));
+        writeBytes(mOut, data);
+        mRecordIndexes.put(key, mRecordCount++);
+    }
+
+    /** Ends staging. Entries can only be read back after this call. */
+    void finishStaging() throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        mOut.close();
+        mOut = null;
+        mRecords = new int[mRecordIndexes.size()];
+        int i = 0;
+        for (int record : mRecordIndexes.values()) {
+            mRecords[i++] = record;
+        }
+        Arrays.sort(mRecords);
+        String[] keys = new String[mRecords.length];
+        for (Map.Entry<String, Integer> entry : mRecordIndexes.entrySet()) {
+            keys[Arrays.binarySearch(mRecords, entry.getValue())] = entry.getKey();
+        }
+        mKeys = Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /** Returns the number of distinct keys. */
+    int size() {
+        return mRecordIndexes.size();
+    }
+
+    /** Returns the distinct keys, in the order of {@link #getValues()}. */
+    @NonNull List<String> getKeys() {
+        checkFinished();
+        return mKeys;
+    }
+
+    /**
+     * Returns the values of {@link #getKeys()}. Each value is read from the file when it is
+     * requested, which is cheapest in increasing index order.
+     */
+    @NonNull List<byte[]> getValues() {
+        checkFinished();
+        return new ValueList();
+    }
+
+    /**
+     * Returns an iterator over the entries with the given keys, in file order. The iterator
+     * throws an {@link UncheckedIOException} if the file cannot be read.
+     */
+    @NonNull Iterator<VendorData> iterator(@NonNull Set<String> keys) {
+        checkFinished();
+        return new VendorDataIterator(keys);
+    }
+
+    /** Deletes the staging file. */
+    @Override
+    public void close() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mFile, e);
+            }
+            mOut = null;
+        }
+        if (!mFile.delete() && mFile.exists()) {
+            Log.w(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    private void checkFinished() {
+        if (mOut != null || mRecords == null) {
+            throw new IllegalStateException("Staging is not finished");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Sequential reader of the records in the staging file. */
+    private final class RecordReader implements Closeable {
+        private final DataInputStream mIn;
+        private int mNextRecord = 0;
+
+        RecordReader() throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        }
+
+        /** Skips records up to the given one. */
+        void skipTo(int record) throws IOException {
+            while (mNextRecord < record) {
+                skipBytes(mIn.readInt());
+                skipBytes(mIn.readInt());
+                mNextRecord++;
+            }
+        }
+
+        /** Reads the key of the next record. It must be followed by a read of its data. */
+        String readKey() throws IOException {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        /** Skips the key of the next record. It must be followed by a read of its data. */
+        void skipKey() throws IOException {
+            skipBytes(mIn.readInt());
+        }
+
+        /** Reads the data of the current record and moves to the next one. */
+        byte[] readData() throws IOException {
+            byte[] data = readBytes();
+            mNextRecord++;
+            return data;
+        }
+
+        int getNextRecord() {
+            return mNextRecord;
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[mIn.readInt()];
+            mIn.readFully(bytes);
+            return bytes;
+        }
+
+        private void skipBytes(int count) throws IOException {
+            while (count > 0) {
+                int skipped = mIn.skipBytes(count);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                count -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    /**
+     * Values read on demand. Lists given to a parceled list slice are read from binder threads
+     * while the slice is sent in chunks, hence the lock.
+     */
+    private final class ValueList extends AbstractList<byte[]> {
+        private final Object mLock = new Object();
+        @GuardedBy("mLock")
+        private RecordReader mReader;
+        @GuardedBy("mLock")
+        private int mLastIndex = -1;
+        @GuardedBy("mLock")
+        private byte[] mLastValue;
+
+        @Override
+        public byte[] get(int index) {
+            if (index < 0 || index >= mRecords.length) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            synchronized (mLock) {
+                if (index == mLastIndex) {
+                    return mLastValue;
+                }
+                try {
+                    int record = mRecords[index];
+                    if (mReader == null || mReader.getNextRecord() > record) {
+                        closeReader();
+                        mReader = new RecordReader();
+                    }
+                    mReader.skipTo(record);
+                    mReader.skipKey();
+                    mLastValue = mReader.readData();
+                    mLastIndex = index;
+                    if (index == mRecords.length - 1) {
+                        closeReader();
+                    }
+                    return mLastValue;
+                } catch (IOException e) {
+                    closeReader();
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return mRecords.length;
+        }
+
+        @GuardedBy("mLock")
+        private void closeReader() {
+            if (mReader == null) {
+                return;
+            }
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mFile, e);
+            }
+            mReader = null;
+        }
+    }
+
+    /** Iterator over the entries with a set of keys. */
+    private final class VendorDataIterator implements Iterator<VendorData> {
+        private final Set<String> mSelectedKeys;
+        private RecordReader mReader;
+        private int mNextIndex = 0;
+        private VendorData mNext;
+
+        VendorDataIterator(Set<String> selectedKeys) {
+            mSelectedKeys = selectedKeys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext != null) {
+                return true;
+            }
+            try {
+                while (mNextIndex < mRecords.length) {
+                    int index = mNextIndex++;
+                    if (!mSelectedKeys.contains(mKeys.get(index))) {
+                        continue;
+                    }
+                    if (mReader == null) {
+                        mReader = new RecordReader();
+                    }
+                    mReader.skipTo(mRecords[index]);
+                    String key = mReader.readKey();
+                    mNext = new VendorData.Builder()
+                            .setKey(key)
+                            .setData(mReader.readData())
+                            .build();
+                    return true;
+                }
+                closeReader();
+                return false;
+            } catch (IOException e) {
+                closeReader();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public VendorData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            VendorData next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        private void closeReader() {
+            if (mReader == null) {
+                return;
+            }
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mFile, e);
+            }
+            mReader = null;
+        }
+    }
+}
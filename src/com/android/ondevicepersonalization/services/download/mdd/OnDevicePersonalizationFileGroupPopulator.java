@@ -16,16 +16,15 @@
 
 package com.android.ondevicepersonalization.services.download.mdd;
 
-import static android.content.pm.PackageManager.GET_META_DATA;
-
 import android.content.Context;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackage;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackageRegistry;
 import com.android.ondevicepersonalization.services.data.vendor.OnDevicePersonalizationVendorDataDao;
 import com.android.ondevicepersonalization.services.manifest.AppManifestConfigHelper;
 import com.android.ondevicepersonalization.services.util.PackageUtils;
@@ -114,7 +113,12 @@ public class OnDevicePersonalizationFileGroupPopulator implements FileGroupPopul
      */
     public static String createPackageFileGroupName(String packageName, Context context) throws
             PackageManager.NameNotFoundException {
-        return packageName + "_" + PackageUtils.getCertDigest(context, packageName);
+        return createPackageFileGroupName(packageName,
+                PackageUtils.getCertDigest(context, packageName));
+    }
+
+    private static String createPackageFileGroupName(String packageName, String certDigest) {
+        return packageName + "_" + certDigest;
     }
 
     /**
@@ -174,41 +178,38 @@ public class OnDevicePersonalizationFileGroupPopulator implements FileGroupPopul
                         fileGroupsToRemove.add(fileGroup.getGroupName());
                     }
                     List<ListenableFuture<Boolean>> mFutures = new ArrayList<>();
-                    for (PackageInfo packageInfo : mContext.getPackageManager()
-                            .getInstalledPackages(
-                                    PackageManager.PackageInfoFlags.of(GET_META_DATA))) {
-                        if (AppManifestConfigHelper.manifestContainsOdpSettings(
-                                mContext, packageInfo.packageName)) {
-                            try {
-                                String groupName = createPackageFileGroupName(
-                                        packageInfo.packageName,
-                                        mContext);
-                                fileGroupsToRemove.remove(groupName);
-                                String ownerPackage = mContext.getPackageName();
-                                String fileId = groupName;
-                                int byteSize = 0;
-                                String checksum = "";
-                                ChecksumType checksumType = ChecksumType.NONE;
-                                String downloadUrl = createDownloadUrl(packageInfo.packageName,
-                                        mContext);
-                                DeviceNetworkPolicy deviceNetworkPolicy =
-                                        DeviceNetworkPolicy.DOWNLOAD_ONLY_ON_WIFI;
-                                DataFileGroup dataFileGroup = createDataFileGroup(
-                                        groupName,
-                                        ownerPackage,
-                                        new String[]{fileId},
-                                        new int[]{byteSize},
-                                        new String[]{checksum},
-                                        new ChecksumType[]{checksumType},
-                                        new String[]{downloadUrl},
-                                        deviceNetworkPolicy);
-                                mFutures.add(mobileDataDownload.addFileGroup(
-                                        AddFileGroupRequest.newBuilder().setDataFileGroup(
-                                                dataFileGroup).build()));
-                            } catch (Exception e) {
-                                Log.e(TAG, "Failed to create file group for "
-                                        + packageInfo.packageName, e);
+                    for (OdpPackage odpPackage :
+                            OdpPackageRegistry.getInstance(mContext).getOdpPackages()) {
+                        String packageName = odpPackage.getPackageName();
+                        try {
+                            if (odpPackage.getCertDigest() == null) {
+                                throw new IllegalArgumentException("Missing cert digest");
                             }
+                            String groupName = createPackageFileGroupName(packageName,
+                                    odpPackage.getCertDigest());
+                            fileGroupsToRemove.remove(groupName);
+                            String ownerPackage = mContext.getPackageName();
+                            String fileId = groupName;
+                            int byteSize = 0;
+                            String checksum = "";
+                            ChecksumType checksumType = ChecksumType.NONE;
+                            String downloadUrl = createDownloadUrl(packageName, mContext);
+                            DeviceNetworkPolicy deviceNetworkPolicy =
+                                    DeviceNetworkPolicy.DOWNLOAD_ONLY_ON_WIFI;
+                            DataFileGroup dataFileGroup = createDataFileGroup(
+                                    groupName,
+                                    ownerPackage,
+                                    new String[]{fileId},
+                                    new int[]{byteSize},
+                                    new String[]{checksum},
+                                    new ChecksumType[]{checksumType},
+                                    new String[]{downloadUrl},
+                                    deviceNetworkPolicy);
+                            mFutures.add(mobileDataDownload.addFileGroup(
+                                    AddFileGroupRequest.newBuilder().setDataFileGroup(
+                                            dataFileGroup).build()));
+                        } catch (Exception e) {
+                            Log.e(TAG, "Failed to create file group for " + packageName, e);
                         }
                     }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.maintenance;
+
+import android.annotation.NonNull;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Reclaims free pages, refreshes the query planner statistics and truncates the write-ahead log
+ * of the ODP databases. The time budget is checked before each step, and the steps are ordered
+ * so that a run cut short still did the most useful ones; the rest is done by the next run.
+ *
+ * <p>The one-time full vacuum that switches a database to incremental auto-vacuum can't be
+ * interrupted, holds the write lock throughout, and needs free space for a copy of the database
+ * and its journal. It is only attempted for databases below a size limit, with enough free
+ * space. Larger databases keep their free pages.
+ */
+final class DatabaseMaintenance {
+    private static final String TAG = "DatabaseMaintenance";
+    private static final String WAL_FILE_SUFFIX = "-wal";
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Pages freed by one incremental_vacuum step, so that the time budget is checked in between.
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+    // Rows sampled per index by ANALYZE, which bounds the time taken by PRAGMA optimize.
+    private static final int ANALYSIS_LIMIT = 400;
+    // Largest database that is converted to incremental auto-vacuum by a full vacuum, which
+    // bounds how long that vacuum blocks writers.
+    private static final long MAX_FULL_VACUUM_SIZE_BYTES = 16L * 1024 * 1024;
+    // A full vacuum writes a copy of the database and, in the worst case, a journal as large.
+    private static final int FULL_VACUUM_SPACE_FACTOR = 2;
+
+    private DatabaseMaintenance() {
+    }
+
+    /**
+     * Runs maintenance on each database in turn.
+     *
+     * @return true if all steps completed within the time budget, false otherwise.
+     */
+    static boolean run(@NonNull List<? extends SQLiteOpenHelper> dbHelpers,
+            long timeBudgetMillis) {
+        long deadline = SystemClock.elapsedRealtime() + timeBudgetMillis;
+        boolean completed = true;
+        for (SQLiteOpenHelper dbHelper : dbHelpers) {
+            if (!hasTimeLeft(deadline)) {
+                return false;
+            }
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            File dbFile = new File(db.getPath());
+            File walFile = new File(db.getPath() + WAL_FILE_SUFFIX);
+            long dbBytes = dbFile.length();
+            long walBytes = walFile.length();
+            try {
+                completed &= maintain(db, dbFile, deadline);
+            } catch (SQLiteException e) {
+                // E.g. busy because of a concurrent transaction. Retried by the next run.
+                Log.e(TAG, "Failed to maintain " + dbFile.getName(), e);
+                completed = false;
+            }
+            Log.d(TAG, dbFile.getName() + ": database " + dbBytes + " -> " + dbFile.length()
+                    + " bytes, WAL " + walBytes + " -> " + walFile.length() + " bytes");
+        }
+        return completed;
+    }
+
+    private static boolean maintain(SQLiteDatabase db, File dbFile, long deadline) {
+        boolean incremental = getLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+        if (!incremental && canRunFullVacuum(dbFile)) {
+            // Databases created before incremental auto-vacuum was enabled are switched over by
+            // a full vacuum, once.
+            runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            incremental = true;
+        }
+        // incremental_vacuum does nothing in other modes, so the free pages would never drop.
+        while (incremental && getLong(db, "PRAGMA freelist_count") > 0) {
+            if (!hasTimeLeft(deadline)) {
+                return false;
+            }
+            runPragma(db, "PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+        }
+        if (!hasTimeLeft(deadline)) {
+            return false;
+        }
+        runPragma(db, "PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+        runPragma(db, "PRAGMA optimize");
+        if (!hasTimeLeft(deadline)) {
+            return false;
+        }
+        // If readers still use the log, this reports busy and a later run truncates it.
+        runPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+        return true;
+    }
+
+    private static boolean canRunFullVacuum(File dbFile) {
+        long dbBytes = dbFile.length();
+        if (dbBytes > MAX_FULL_VACUUM_SIZE_BYTES) {
+            Log.d(TAG, dbFile.getName() + " is too large for a full vacuum: " + dbBytes);
+            return false;
+        }
+        File dir = dbFile.getParentFile();
+        long freeBytes = (dir != null) ? dir.getUsableSpace() : 0;
+        if (freeBytes < FULL_VACUUM_SPACE_FACTOR * dbBytes) {
+            Log.d(TAG, "Not enough free space for a full vacuum of " + dbFile.getName() + ": "
+                    + freeBytes);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean hasTimeLeft(long deadline) {
+        // The job is stopped by interrupting its thread.
+        return SystemClock.elapsedRealtime() < deadline
+                && !Thread.currentThread().isInterrupted();
+    }
+
+    private static long getLong(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /** Runs a pragma that may return rows, which execSQL does not allow. */
+    private static void runPragma(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                // Drain the cursor, which runs the statement to completion.
+            }
+        }
+    }
+}
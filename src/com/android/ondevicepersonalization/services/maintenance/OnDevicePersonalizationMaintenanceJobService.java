@@ -17,7 +17,6 @@
 package com.android.ondevicepersonalization.services.maintenance;
 
 import static android.app.job.JobScheduler.RESULT_FAILURE;
-import static android.content.pm.PackageManager.GET_META_DATA;
 
 import android.app.job.JobInfo;
 import android.app.job.JobParameters;
@@ -25,16 +24,20 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.ondevicepersonalization.services.FlagsFactory;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationConfig;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationEventsDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationUserDataDbHelper;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackage;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackageRegistry;
+import com.android.ondevicepersonalization.services.data.vendor.OnDevicePersonalizationLocalDataDao;
 import com.android.ondevicepersonalization.services.data.vendor.OnDevicePersonalizationVendorDataDao;
-import com.android.ondevicepersonalization.services.manifest.AppManifestConfigHelper;
-import com.android.ondevicepersonalization.services.util.PackageUtils;
 
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -42,6 +45,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.AbstractMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -93,6 +97,17 @@ public class OnDevicePersonalizationMaintenanceJobService extends JobService {
                 } catch (Exception e) {
                     Log.e(TAG, "Failed to cleanup vendorData", e);
                 }
+                try {
+                    OnDevicePersonalizationLocalDataDao.flushAll();
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to flush local data", e);
+                }
+                // Runs after the cleanup, so that the pages of dropped tables are reclaimed.
+                try {
+                    maintainDatabases(context);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to maintain databases", e);
+                }
             }
         }, OnDevicePersonalizationExecutors.getBackgroundExecutor());
 
@@ -135,13 +150,13 @@ public class OnDevicePersonalizationMaintenanceJobService extends JobService {
                 OnDevicePersonalizationVendorDataDao.getVendors(context));
 
         // Remove all valid packages from the set
-        for (PackageInfo packageInfo : context.getPackageManager().getInstalledPackages(
-                PackageManager.PackageInfoFlags.of(GET_META_DATA))) {
-            String packageName = packageInfo.packageName;
-            if (AppManifestConfigHelper.manifestContainsOdpSettings(
-                    context, packageName)) {
-                vendors.remove(new AbstractMap.SimpleImmutableEntry<>(packageName,
-                        PackageUtils.getCertDigest(context, packageName)));
+        for (OdpPackage odpPackage : OdpPackageRegistry.getInstance(context).getOdpPackages()) {
+            Map.Entry<String, String> vendor = new AbstractMap.SimpleImmutableEntry<>(
+                    odpPackage.getPackageName(), odpPackage.getCertDigest());
+            if (vendors.remove(vendor)) {
+                // Files of values replaced by earlier downloads are only reclaimed here.
+                OnDevicePersonalizationVendorDataDao.getInstance(context, vendor.getKey(),
+                        vendor.getValue()).deleteUnreferencedFiles();
             }
         }
 
@@ -153,4 +168,18 @@ public class OnDevicePersonalizationMaintenanceJobService extends JobService {
         }
 
     }
+
+    @VisibleForTesting
+    static boolean maintainDatabases(Context context) {
+        List<SQLiteOpenHelper> dbHelpers = List.of(
+                OnDevicePersonalizationDbHelper.getInstance(context),
+                OnDevicePersonalizationEventsDbHelper.getInstance(context),
+                OnDevicePersonalizationUserDataDbHelper.getInstance(context));
+        boolean completed = DatabaseMaintenance.run(dbHelpers,
+                FlagsFactory.getFlags().getDatabaseMaintenanceTimeBudgetMillis());
+        if (!completed) {
+            Log.d(TAG, "Database maintenance did not complete, continuing in the next run.");
+        }
+        return completed;
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.manifest;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.util.LruCache;
+
+import com.android.ondevicepersonalization.services.OnDevicePersonalizationPackageChangeReceiver;
+
+/**
+ * LRU cache of parsed {@link AppManifestConfig}s. Each entry is tagged with the lastUpdateTime of
+ * the package it was parsed from, so a config is never served for a different version of the
+ * package. Entries are also dropped when the package changes, so that removed packages do not
+ * hold memory.
+ */
+final class AppManifestConfigCache
+        implements OnDevicePersonalizationPackageChangeReceiver.Listener {
+    private static final int MAX_ENTRIES = 32;
+    private static AppManifestConfigCache sSingleton = null;
+
+    private static final class Entry {
+        final long mLastUpdateTime;
+        @NonNull final AppManifestConfig mConfig;
+
+        Entry(long lastUpdateTime, @NonNull AppManifestConfig config) {
+            mLastUpdateTime = lastUpdateTime;
+            mConfig = config;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+
+    /** Returns the AppManifestConfigCache singleton. */
+    @NonNull static AppManifestConfigCache getInstance(@NonNull Context context) {
+        synchronized (AppManifestConfigCache.class) {
+            if (sSingleton == null) {
+                sSingleton = new AppManifestConfigCache();
+                OnDevicePersonalizationPackageChangeReceiver.addListener(context, sSingleton);
+            }
+            return sSingleton;
+        }
+    }
+
+    /**
+     * Returns the config parsed from the given version of a package, or null if it is not
+     * cached.
+     */
+    @Nullable AppManifestConfig get(@NonNull String packageName, long lastUpdateTime) {
+        Entry entry = mEntries.get(packageName);
+        if (entry == null || entry.mLastUpdateTime != lastUpdateTime) {
+            return null;
+        }
+        return entry.mConfig;
+    }
+
+    /** Caches the config parsed from the given version of a package. */
+    void put(@NonNull String packageName, long lastUpdateTime,
+            @NonNull AppManifestConfig config) {
+        mEntries.put(packageName, new Entry(lastUpdateTime, config));
+    }
+
+    /** Drops all cached configs. */
+    void clear() {
+        mEntries.evictAll();
+    }
+
+    @Override
+    public void onPackageChanged(@NonNull String packageName) {
+        mEntries.remove(packageName);
+    }
+}
@@ -22,7 +22,8 @@ import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 
 /**
- * Helper class for parsing and checking app manifest configs
+ * Helper class for parsing and checking app manifest configs. Parsed configs are cached until
+ * the package is updated.
  */
 public final class AppManifestConfigHelper {
     private static final String ON_DEVICE_PERSONALIZATION_CONFIG_PROPERTY =
@@ -51,6 +52,27 @@ public final class AppManifestConfigHelper {
 
     static AppManifestConfig getAppManifestConfig(Context context,
             String packageName) {
+        PackageManager pm = context.getPackageManager();
+        long lastUpdateTime;
+        try {
+            lastUpdateTime = pm.getPackageInfo(
+                    packageName, PackageManager.PackageInfoFlags.of(0)).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // TODO(b/241941021) Determine correct exception to throw
+            throw new IllegalArgumentException("Package not found: " + packageName, e);
+        }
+        AppManifestConfigCache cache = AppManifestConfigCache.getInstance(context);
+        AppManifestConfig config = cache.get(packageName, lastUpdateTime);
+        if (config != null) {
+            return config;
+        }
+        config = parseAppManifestConfig(context, packageName);
+        cache.put(packageName, lastUpdateTime, config);
+        return config;
+    }
+
+    private static AppManifestConfig parseAppManifestConfig(Context context,
+            String packageName) {
         if (!manifestContainsOdpSettings(context, packageName)) {
             // TODO(b/241941021) Determine correct exception to throw
             throw new IllegalArgumentException(
@@ -62,7 +84,6 @@ public final class AppManifestConfigHelper {
                     packageName).getResourceId();
             Resources resources = pm.getResourcesForApplication(packageName);
             XmlResourceParser xmlParser = resources.getXml(resId);
-            // TODO(b/239479120) Update to avoid re-parsing the XML too frequently if required
             return AppManifestConfigParser.getConfig(xmlParser);
         } catch (Exception e) {
             // TODO(b/241941021) Determine correct exception to throw
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.process;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
+import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
+import com.android.ondevicepersonalization.services.OnDevicePersonalizationPackageChangeReceiver;
+import com.android.ondevicepersonalization.services.util.PackageUtils;
+
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps isolated services loaded between requests so that the plugin does not have to be
+ * copied and loaded for every request. Services are keyed by (service package, cert digest,
+ * task), are dropped when the service package changes and are unloaded after being idle.
+ */
+public class IsolatedServicePool
+        implements OnDevicePersonalizationPackageChangeReceiver.Listener {
+    private static final String TAG = "IsolatedServicePool";
+
+    @VisibleForTesting
+    static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static IsolatedServicePool sSingleton;
+
+    @VisibleForTesting
+    static class Injector {
+        long getElapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        String getCertDigest(Context context, String packageName)
+                throws PackageManager.NameNotFoundException {
+            return PackageUtils.getCertDigest(context, packageName);
+        }
+
+        ListenableFuture<IsolatedServiceInfo> loadIsolatedService(
+                String pluginId, String packageName, Context context) {
+            return ProcessUtils.loadNewIsolatedService(pluginId, packageName, context);
+        }
+
+        ListenableFuture<Boolean> isIsolatedServiceLoaded(IsolatedServiceInfo info) {
+            return ProcessUtils.isIsolatedServiceLoaded(info);
+        }
+
+        void unloadIsolatedService(IsolatedServiceInfo info) {
+            ProcessUtils.unloadIsolatedService(info);
+        }
+
+        void scheduleEviction(Runnable runnable, long delayMillis) {
+            OnDevicePersonalizationExecutors.getHandler().postDelayed(runnable, delayMillis);
+        }
+
+        ListeningExecutorService getExecutor() {
+            return OnDevicePersonalizationExecutors.getBackgroundExecutor();
+        }
+    }
+
+    private static final class Key {
+        @NonNull final String mPackageName;
+        @NonNull final String mCertDigest;
+        @NonNull final String mTaskName;
+
+        Key(@NonNull String packageName, @NonNull String certDigest, @NonNull String taskName) {
+            mPackageName = packageName;
+            mCertDigest = certDigest;
+            mTaskName = taskName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return mPackageName.equals(that.mPackageName)
+                    && mCertDigest.equals(that.mCertDigest)
+                    && mTaskName.equals(that.mTaskName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mCertDigest, mTaskName);
+        }
+
+        @Override
+        public String toString() {
+            return mPackageName + "/" + mTaskName;
+        }
+    }
+
+    private static final class Entry {
+        @NonNull final SettableFuture<IsolatedServiceInfo> mFuture = SettableFuture.create();
+        long mLastUsedTimeMillis;
+
+        Entry(long lastUsedTimeMillis) {
+            mLastUsedTimeMillis = lastUsedTimeMillis;
+        }
+    }
+
+    @NonNull private final Context mContext;
+    @NonNull private final Injector mInjector;
+    private final AtomicLong mNextInstanceId = new AtomicLong(0);
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+    @GuardedBy("mLock")
+    private boolean mEvictionScheduled = false;
+
+    @VisibleForTesting
+    IsolatedServicePool(@NonNull Context context, @NonNull Injector injector) {
+        mContext = Objects.requireNonNull(context);
+        mInjector = Objects.requireNonNull(injector);
+    }
+
+    /** Returns the IsolatedServicePool singleton. */
+    @NonNull public static IsolatedServicePool getInstance(@NonNull Context context) {
+        synchronized (IsolatedServicePool.class) {
+            if (sSingleton == null) {
+                sSingleton = new IsolatedServicePool(
+                        context.getApplicationContext(), new Injector());
+                OnDevicePersonalizationPackageChangeReceiver.addListener(context, sSingleton);
+            }
+            return sSingleton;
+        }
+    }
+
+    /**
+     * Returns a loaded instance of the isolated service for the given package and task, loading
+     * a new instance if there is no warm one available.
+     */
+    @NonNull public ListenableFuture<IsolatedServiceInfo> getIsolatedService(
+            @NonNull String taskName, @NonNull String packageName) {
+        Key key;
+        try {
+            key = new Key(packageName, mInjector.getCertDigest(mContext, packageName), taskName);
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
+        Entry entry;
+        synchronized (mLock) {
+            entry = mEntries.get(key);
+            if (entry != null) {
+                entry.mLastUsedTimeMillis = mInjector.getElapsedRealtime();
+            }
+        }
+        if (entry == null || !entry.mFuture.isDone()) {
+            return getOrLoadIsolatedService(key);
+        }
+
+        // The plugin is lost if the isolated process was killed, so check that it is still
+        // loaded before handing it out.
+        final Entry cachedEntry = entry;
+        return FluentFuture.from(cachedEntry.mFuture)
+                .transformAsync(
+                        info -> FluentFuture.from(mInjector.isIsolatedServiceLoaded(info))
+                                .transformAsync(
+                                        loaded -> {
+                                            if (loaded) {
+                                                return Futures.immediateFuture(info);
+                                            }
+                                            Log.d(TAG, "Reloading " + key);
+                                            removeEntry(key, cachedEntry);
+                                            unloadEntry(cachedEntry);
+                                            return getOrLoadIsolatedService(key);
+                                        },
+                                        MoreExecutors.directExecutor()),
+                        MoreExecutors.directExecutor());
+    }
+
+    /** Unloads all services of a package after it has been added, replaced or removed. */
+    @Override
+    public void onPackageChanged(@NonNull String packageName) {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (mLock) {
+            Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> mapEntry = iterator.next();
+                if (mapEntry.getKey().mPackageName.equals(packageName)) {
+                    removed.add(mapEntry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        for (Entry entry : removed) {
+            unloadEntry(entry);
+        }
+    }
+
+    /** Unloads services that have not been used for {@link #IDLE_TIMEOUT_MILLIS}. */
+    @VisibleForTesting
+    void evictIdleServices() {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (mLock) {
+            mEvictionScheduled = false;
+            long now = mInjector.getElapsedRealtime();
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.mLastUsedTimeMillis >= IDLE_TIMEOUT_MILLIS) {
+                    evicted.add(entry);
+                    iterator.remove();
+                }
+            }
+            scheduleEvictionLocked();
+        }
+        for (Entry entry : evicted) {
+            unloadEntry(entry);
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (mLock) {
+            return mEntries.size();
+        }
+    }
+
+    private ListenableFuture<IsolatedServiceInfo> getOrLoadIsolatedService(@NonNull Key key) {
+        Entry entry;
+        synchronized (mLock) {
+            entry = mEntries.get(key);
+            if (entry != null) {
+                entry.mLastUsedTimeMillis = mInjector.getElapsedRealtime();
+                return entry.mFuture;
+            }
+            entry = new Entry(mInjector.getElapsedRealtime());
+            mEntries.put(key, entry);
+            scheduleEvictionLocked();
+        }
+
+        // Each instance gets its own plugin id, so unloading a stale instance can never
+        // remove a newer instance of the same service from the isolated process.
+        String pluginId = PluginInfo.createInstanceTaskName(
+                ProcessUtils.createPluginId(key.mPackageName, key.mTaskName),
+                mNextInstanceId.getAndIncrement());
+        final Entry newEntry = entry;
+        Futures.addCallback(
+                newEntry.mFuture,
+                new FutureCallback<IsolatedServiceInfo>() {
+                    @Override
+                    public void onSuccess(IsolatedServiceInfo result) {}
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        removeEntry(key, newEntry);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        try {
+            newEntry.mFuture.setFuture(
+                    mInjector.loadIsolatedService(pluginId, key.mPackageName, mContext));
+        } catch (Exception e) {
+            newEntry.mFuture.setException(e);
+        }
+        return newEntry.mFuture;
+    }
+
+    private void removeEntry(@NonNull Key key, @NonNull Entry entry) {
+        synchronized (mLock) {
+            mEntries.remove(key, entry);
+        }
+    }
+
+    private void unloadEntry(@NonNull Entry entry) {
+        Futures.addCallback(
+                entry.mFuture,
+                new FutureCallback<IsolatedServiceInfo>() {
+                    @Override
+                    public void onSuccess(IsolatedServiceInfo info) {
+                        mInjector.unloadIsolatedService(info);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {}
+                },
+                mInjector.getExecutor());
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleEvictionLocked() {
+        if (mEvictionScheduled || mEntries.isEmpty()) {
+            return;
+        }
+        mEvictionScheduled = true;
+        mInjector.scheduleEviction(this::evictIdleServices, IDLE_TIMEOUT_MILLIS);
+    }
+}
@@ -30,13 +30,30 @@ import com.android.ondevicepersonalization.libraries.plugin.Plugin;
 import com.android.ondevicepersonalization.libraries.plugin.PluginCallback;
 import com.android.ondevicepersonalization.libraries.plugin.PluginContext;
 
-/** Plugin that runs in an isolated process. */
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Plugin that runs in an isolated process. The vendor's {@link IsolatedComputationService} is
+ * created once per class and kept for the lifetime of the plugin, so that vendor state stays warm
+ * across requests. The services are destroyed when the plugin is unloaded. Like the binder of a
+ * bound service, a service may receive several requests at once.
+ */
 public class OnDevicePersonalizationPlugin implements Plugin {
     private static final String TAG = "OnDevicePersonalizationPlugin";
-    private Bundle mInput;
-    private PluginCallback mPluginCallback;
-    private PluginContext mPluginContext;
     private ClassLoader mClassLoader;
+    private final Object mLock = new Object();
+    private final Map<String, CreatedService> mServices = new HashMap<>();
+
+    private static final class CreatedService {
+        final IsolatedComputationService mService;
+        final IIsolatedComputationService mBinder;
+
+        CreatedService(IsolatedComputationService service, IIsolatedComputationService binder) {
+            mService = service;
+            mBinder = binder;
+        }
+    }
 
     @Override
     public void setClassLoader(ClassLoader classLoader) {
@@ -48,23 +65,22 @@ public class OnDevicePersonalizationPlugin implements Plugin {
             @NonNull Bundle input,
             @NonNull PluginCallback callback,
             @Nullable PluginContext pluginContext) {
+        // The plugin is kept loaded across requests, so per-request state must not be stored
+        // in fields.
         Log.d(TAG, "Executing plugin: " + input.toString());
-        mInput = input;
-        mPluginCallback = callback;
-        mPluginContext = pluginContext;
 
         try {
             String className = input.getString(ProcessUtils.PARAM_CLASS_NAME_KEY);
             if (className == null || className.isEmpty()) {
                 Log.e(TAG, "className missing.");
-                sendErrorResult(FailureType.ERROR_EXECUTING_PLUGIN);
+                sendErrorResult(callback, FailureType.ERROR_EXECUTING_PLUGIN);
                 return;
             }
 
             int operation = input.getInt(ProcessUtils.PARAM_OPERATION_KEY);
             if (operation == 0) {
                 Log.e(TAG, "operation missing or invalid.");
-                sendErrorResult(FailureType.ERROR_EXECUTING_PLUGIN);
+                sendErrorResult(callback, FailureType.ERROR_EXECUTING_PLUGIN);
                 return;
             }
 
@@ -72,30 +88,24 @@ public class OnDevicePersonalizationPlugin implements Plugin {
                     Bundle.class);
             if (serviceParams == null) {
                 Log.e(TAG, "Missing service input.");
-                sendErrorResult(FailureType.ERROR_EXECUTING_PLUGIN);
+                sendErrorResult(callback, FailureType.ERROR_EXECUTING_PLUGIN);
                 return;
             }
 
-            Class<?> clazz = Class.forName(className, true, mClassLoader);
-            IsolatedComputationService service =
-                    (IsolatedComputationService) clazz.getDeclaredConstructor().newInstance();
-            // TODO(b/249345663): Set the 'Context' for the service.
-            service.onCreate();
-            IIsolatedComputationService binder =
-                    (IIsolatedComputationService) service.onBind(null);
+            IIsolatedComputationService binder = getOrCreateService(className);
 
             binder.onRequest(operation, serviceParams,
                     new IIsolatedComputationServiceCallback.Stub() {
                         @Override public void onSuccess(Bundle result) {
                             try {
-                                mPluginCallback.onSuccess(result);
+                                callback.onSuccess(result);
                             } catch (RemoteException e) {
                                 Log.e(TAG, "Callback error.", e);
                             }
                         }
                         @Override public void onError(int errorCode) {
                             try {
-                                mPluginCallback.onFailure(FailureType.ERROR_EXECUTING_PLUGIN);
+                                callback.onFailure(FailureType.ERROR_EXECUTING_PLUGIN);
                             } catch (RemoteException e) {
                                 Log.e(TAG, "Callback error.", e);
                             }
@@ -105,13 +115,45 @@ public class OnDevicePersonalizationPlugin implements Plugin {
 
         } catch (Exception e) {
             Log.e(TAG, "Plugin failed. ", e);
-            sendErrorResult(FailureType.ERROR_EXECUTING_PLUGIN);
+            sendErrorResult(callback, FailureType.ERROR_EXECUTING_PLUGIN);
+        }
+    }
+
+    @Override
+    public void onUnload() {
+        synchronized (mLock) {
+            for (Map.Entry<String, CreatedService> entry : mServices.entrySet()) {
+                try {
+                    entry.getValue().mService.onDestroy();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error destroying " + entry.getKey(), e);
+                }
+            }
+            mServices.clear();
+        }
+    }
+
+    private IIsolatedComputationService getOrCreateService(String className) throws Exception {
+        synchronized (mLock) {
+            CreatedService createdService = mServices.get(className);
+            if (createdService == null) {
+                Class<?> clazz = Class.forName(className, true, mClassLoader);
+                IsolatedComputationService service =
+                        (IsolatedComputationService) clazz.getDeclaredConstructor().newInstance();
+                // TODO(b/249345663): Set the 'Context' for the service.
+                service.onCreate();
+                IIsolatedComputationService binder =
+                        (IIsolatedComputationService) service.onBind(null);
+                createdService = new CreatedService(service, binder);
+                mServices.put(className, createdService);
+            }
+            return createdService.mBinder;
         }
     }
 
-    private void sendErrorResult(FailureType failure) {
+    private void sendErrorResult(PluginCallback callback, FailureType failure) {
         try {
-            mPluginCallback.onFailure(failure);
+            callback.onFailure(failure);
         } catch (RemoteException e) {
             Log.e(TAG, "Callback error.", e);
         }
@@ -31,7 +31,9 @@ import com.android.ondevicepersonalization.libraries.plugin.PluginCallback;
 import com.android.ondevicepersonalization.libraries.plugin.PluginController;
 import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
 import com.android.ondevicepersonalization.libraries.plugin.PluginManager;
+import com.android.ondevicepersonalization.libraries.plugin.PluginState;
 import com.android.ondevicepersonalization.libraries.plugin.impl.PluginManagerImpl;
+import com.android.ondevicepersonalization.services.FlagsFactory;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
@@ -51,20 +53,66 @@ public class ProcessUtils {
 
     private static PluginManager sPluginManager;
 
-    /** Loads a service in an isolated process */
+    /**
+     * Loads a service in an isolated process, reusing an already loaded instance from the
+     * {@link IsolatedServicePool} if one is available.
+     */
     @NonNull public static ListenableFuture<IsolatedServiceInfo> loadIsolatedService(
             @NonNull String taskName, @NonNull String packageName,
             @NonNull Context context) {
+        try {
+            return IsolatedServicePool.getInstance(context)
+                    .getIsolatedService(taskName, packageName);
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /** Loads a new instance of a service in an isolated process */
+    @NonNull static ListenableFuture<IsolatedServiceInfo> loadNewIsolatedService(
+            @NonNull String pluginId, @NonNull String packageName,
+            @NonNull Context context) {
         try {
             Log.d(TAG, "loadIsolatedService: " + packageName);
             return loadPlugin(createPluginController(
-                    createPluginId(packageName, taskName),
-                    getPluginManager(context), packageName));
+                    pluginId, getPluginManager(context), packageName));
         } catch (Exception e) {
             return Futures.immediateFailedFuture(e);
         }
     }
 
+    /** Returns whether the plugin of a service is still loaded in the isolated process */
+    @NonNull static ListenableFuture<Boolean> isIsolatedServiceLoaded(
+            @NonNull IsolatedServiceInfo isolatedProcessInfo) {
+        return CallbackToFutureAdapter.getFuture(
+            completer -> {
+                try {
+                    isolatedProcessInfo.getPluginController().checkPluginState(
+                            state -> completer.set(state == PluginState.STATE_LOADED));
+                } catch (Exception e) {
+                    completer.set(false);
+                }
+                return "isIsolatedServiceLoaded";
+            }
+        );
+    }
+
+    /** Unloads a service from the isolated process and unbinds from the process */
+    static void unloadIsolatedService(@NonNull IsolatedServiceInfo isolatedProcessInfo) {
+        PluginController pluginController = isolatedProcessInfo.getPluginController();
+        Log.d(TAG, "unloadIsolatedService: " + pluginController.getName());
+        try {
+            pluginController.unload(new PluginCallback() {
+                @Override public void onSuccess(Bundle bundle) {}
+                @Override public void onFailure(FailureType failure) {
+                    Log.w(TAG, String.format("unloadPlugin failed. %s", failure.toString()));
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "unloadIsolatedService failed.", e);
+        }
+    }
+
     /** Executes a service loaded in an isolated process */
     @NonNull public static ListenableFuture<Bundle> runIsolatedService(
             @NonNull IsolatedServiceInfo isolatedProcessInfo,
@@ -72,6 +120,10 @@ public class ProcessUtils {
             int operationCode,
             @NonNull Bundle serviceParams) {
         Log.d(TAG, "runIsolatedService: " + className + " op: " + operationCode);
+        if (!serviceParams.containsKey(Constants.EXTRA_DATA_ACCESS_TIMEOUT_MILLIS)) {
+            serviceParams.putLong(Constants.EXTRA_DATA_ACCESS_TIMEOUT_MILLIS,
+                    FlagsFactory.getFlags().getDataAccessTimeoutMillis());
+        }
         Bundle pluginParams = new Bundle();
         pluginParams.putString(PARAM_CLASS_NAME_KEY, className);
         pluginParams.putInt(PARAM_OPERATION_KEY, operationCode);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.util;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.ondevicepersonalization.services.OnDevicePersonalizationPackageChangeReceiver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of package cert digests. An entry is dropped when its package is added,
+ * replaced or removed, which is the only time the signing certificates of a package can change.
+ *
+ * <p>A digest is only cached if no package changed while it was being computed, so a digest read
+ * from a package that was replaced in the meantime is never kept.
+ */
+final class CertDigestCache implements OnDevicePersonalizationPackageChangeReceiver.Listener {
+    private static CertDigestCache sSingleton = null;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Map<String, String> mDigests = new HashMap<>();
+    @GuardedBy("mLock")
+    private long mGeneration = 0;
+
+    /** Returns the CertDigestCache singleton. */
+    @NonNull static CertDigestCache getInstance(@NonNull Context context) {
+        synchronized (CertDigestCache.class) {
+            if (sSingleton == null) {
+                sSingleton = new CertDigestCache();
+                OnDevicePersonalizationPackageChangeReceiver.addListener(context, sSingleton);
+            }
+            return sSingleton;
+        }
+    }
+
+    /** Returns the cached digest of a package, or null if it is not cached. */
+    @Nullable String get(@NonNull String packageName) {
+        synchronized (mLock) {
+            return mDigests.get(packageName);
+        }
+    }
+
+    /**
+     * Returns the current generation of the cache. It must be read before the digest is computed
+     * and passed to {@link #put}.
+     */
+    long getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /** Caches a digest unless a package has changed since {@code generation} was read. */
+    void put(@NonNull String packageName, @NonNull String digest, long generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mDigests.put(packageName, digest);
+            }
+        }
+    }
+
+    /** Drops all cached digests. */
+    void clear() {
+        synchronized (mLock) {
+            mDigests.clear();
+            ++mGeneration;
+        }
+    }
+
+    @Override
+    public void onPackageChanged(@NonNull String packageName) {
+        synchronized (mLock) {
+            mDigests.remove(packageName);
+            ++mGeneration;
+        }
+    }
+}
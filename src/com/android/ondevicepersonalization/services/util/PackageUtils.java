@@ -65,7 +65,8 @@ public class PackageUtils {
     }
 
     /**
-     * Retrieves the certDigest of the given packageName
+     * Retrieves the certDigest of the given packageName. The digest is cached until the package
+     * is added, replaced or removed.
      *
      * @param context     Context of the calling service
      * @param packageName Package name owning the certDigest
@@ -74,6 +75,19 @@ public class PackageUtils {
     @Nullable
     public static String getCertDigest(@NonNull Context context, @NonNull String packageName) throws
             PackageManager.NameNotFoundException {
+        CertDigestCache cache = CertDigestCache.getInstance(context);
+        String certDigest = cache.get(packageName);
+        if (certDigest != null) {
+            return certDigest;
+        }
+        long generation = cache.getGeneration();
+        certDigest = computeCertDigest(context, packageName);
+        cache.put(packageName, certDigest, generation);
+        return certDigest;
+    }
+
+    private static String computeCertDigest(@NonNull Context context, @NonNull String packageName)
+            throws PackageManager.NameNotFoundException {
         PackageInfo sdkPackageInfo = context.getPackageManager().getPackageInfo(packageName,
                 PackageManager.PackageInfoFlags.of(
                         GET_SIGNING_CERTIFICATES | MATCH_STATIC_SHARED_AND_SDK_LIBRARIES));
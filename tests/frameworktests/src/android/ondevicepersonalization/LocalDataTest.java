@@ -29,12 +29,18 @@ import android.os.RemoteException;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
+import com.android.modules.utils.StringParceledListSlice;
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -121,6 +127,55 @@ public class LocalDataTest {
         assertThrows(OnDevicePersonalizationException.class, () -> mLocalData.remove("timeout"));
     }
 
+    @Test
+    public void testPutAllSuccess() throws Exception {
+        Map<String, byte[]> values = new HashMap<>();
+        values.put("a", new byte[] {10});
+        values.put("e", new byte[] {11});
+        Map<String, byte[]> previousValues = mLocalData.putAll(values);
+        assertEquals(Set.of("a", "e"), previousValues.keySet());
+        assertArrayEquals(new byte[] {1, 2, 3}, previousValues.get("a"));
+        assertNull(previousValues.get("e"));
+        assertArrayEquals(new byte[] {10}, mLocalData.get("a"));
+        assertArrayEquals(new byte[] {11}, mLocalData.get("e"));
+    }
+
+    @Test
+    public void testPutAllThrowsOversizedBatch() {
+        Map<String, byte[]> values = new HashMap<>();
+        values.put("a", new byte[Constants.MAX_LOCAL_DATA_BATCH_SIZE_BYTES]);
+        assertThrows(IllegalArgumentException.class, () -> mLocalData.putAll(values));
+    }
+
+    @Test
+    public void testRemoveAllSuccess() throws Exception {
+        Map<String, byte[]> previousValues = mLocalData.removeAll(List.of("a", "b", "e"));
+        assertEquals(Set.of("a", "b", "e"), previousValues.keySet());
+        assertArrayEquals(new byte[] {4, 5, 6}, previousValues.get("b"));
+        assertNull(previousValues.get("e"));
+        assertEquals(Set.of("c"), mLocalData.keySet());
+    }
+
+    @Test
+    public void testPutAsyncAndRemoveAsyncSuccess() {
+        RemoteDataTest.ResultReceiver<byte[]> putReceiver = new RemoteDataTest.ResultReceiver<>();
+        mLocalData.putAsync("e", new byte[] {1, 2, 3}, Runnable::run, putReceiver);
+        assertNull(putReceiver.mResult);
+        assertNull(putReceiver.mException);
+
+        RemoteDataTest.ResultReceiver<byte[]> removeReceiver =
+                new RemoteDataTest.ResultReceiver<>();
+        mLocalData.removeAsync("e", Runnable::run, removeReceiver);
+        assertArrayEquals(new byte[] {1, 2, 3}, removeReceiver.mResult);
+    }
+
+    @Test
+    public void testLookupDeadline() {
+        MutableMap localData = new LocalDataImpl(
+                IDataAccessService.Stub.asInterface(new LocalDataService()),
+                /* timeoutMillis= */ 10);
+        assertThrows(OnDevicePersonalizationException.class, () -> localData.get("timeout"));
+    }
 
     public static class LocalDataService extends IDataAccessService.Stub {
         HashMap<String, byte[]> mContents = new HashMap<String, byte[]>();
@@ -139,8 +194,34 @@ public class LocalDataTest {
 
             if (operation == Constants.DATA_ACCESS_OP_LOCAL_DATA_KEYSET) {
                 Bundle result = new Bundle();
-                result.putSerializable(Constants.EXTRA_RESULT,
-                        new HashSet<>(mContents.keySet()));
+                result.putParcelable(Constants.EXTRA_RESULT,
+                        new StringParceledListSlice(new ArrayList<>(mContents.keySet())));
+                try {
+                    callback.onSuccess(result);
+                } catch (RemoteException e) {
+                    // Ignored.
+                }
+                return;
+            }
+
+            if (operation == Constants.DATA_ACCESS_OP_LOCAL_DATA_BATCH) {
+                Bundle batch = params.getBundle(Constants.EXTRA_BATCH);
+                HashMap<String, byte[]> changes = new HashMap<>();
+                for (String key : batch.keySet()) {
+                    changes.put(key, batch.getByteArray(key));
+                }
+                HashMap<String, byte[]> previousValues = new HashMap<String, byte[]>();
+                for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+                    previousValues.put(change.getKey(), mContents.get(change.getKey()));
+                    if (change.getValue() == null) {
+                        mContents.remove(change.getKey());
+                    } else {
+                        mContents.put(change.getKey(), change.getValue());
+                    }
+                }
+                Bundle result = new Bundle();
+                result.putParcelable(Constants.EXTRA_RESULT,
+                        new KeyValueParceledListSlice(previousValues));
                 try {
                     callback.onSuccess(result);
                 } catch (RemoteException e) {
@@ -187,7 +268,7 @@ public class LocalDataTest {
                     mContents.put(keys[0], value);
                 }
                 Bundle result = new Bundle();
-                result.putSerializable(Constants.EXTRA_RESULT, dict);
+                result.putParcelable(Constants.EXTRA_RESULT, new KeyValueParceledListSlice(dict));
                 try {
                     callback.onSuccess(result);
                 } catch (RemoteException e) {
@@ -16,7 +16,10 @@
 
 package android.ondevicepersonalization;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import android.os.Parcel;
 import android.os.PersistableBundle;
@@ -24,9 +27,13 @@ import android.os.PersistableBundle;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.HashMap;
+
 /**
  * Unit Tests of Framework API Classes.
  */
@@ -183,4 +190,26 @@ public class OnDevicePersonalizationFrameworkClassesTest {
         assertEquals(result, result2);
         assertEquals(11, result2.getMetrics().getLongValues()[0]);
     }
+
+    /**
+     * Tests that the KeyValueParceledListSlice object serializes correctly.
+     */
+    @Test
+    public void testKeyValueParceledListSlice() {
+        HashMap<String, byte[]> map = new HashMap<>();
+        map.put("a", new byte[] {1, 2, 3});
+        map.put("b", null);
+        KeyValueParceledListSlice slice = new KeyValueParceledListSlice(map);
+
+        Parcel parcel = Parcel.obtain();
+        slice.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        HashMap<String, byte[]> result =
+                KeyValueParceledListSlice.CREATOR.createFromParcel(parcel).toMap();
+
+        assertEquals(2, result.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, result.get("a"));
+        assertTrue(result.containsKey("b"));
+        assertNull(result.get("b"));
+    }
 }
@@ -18,23 +18,40 @@ package android.ondevicepersonalization;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import android.ondevicepersonalization.aidl.IDataAccessService;
 import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
 import android.os.Bundle;
+import android.os.OutcomeReceiver;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
+import com.android.modules.utils.StringParceledListSlice;
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit Tests of RemoteData API.
@@ -53,12 +70,94 @@ public class RemoteDataTest {
         assertNull(mRemoteData.get("e"));
     }
 
+    @Test
+    public void testGetAllSuccess() throws Exception {
+        Map<String, byte[]> result = mRemoteData.getAll(List.of("a", "c", "e"));
+        assertEquals(Set.of("a", "c"), result.keySet());
+        assertArrayEquals(new byte[] {1, 2, 3}, result.get("a"));
+        assertArrayEquals(new byte[] {7, 8, 9}, result.get("c"));
+    }
+
+    @Test
+    public void testLookupFileSuccess() throws Exception {
+        assertArrayEquals(new byte[] {10, 11, 12}, mRemoteData.get("f"));
+        Map<String, byte[]> result = mRemoteData.getAll(List.of("a", "f"));
+        assertEquals(Set.of("a", "f"), result.keySet());
+        assertArrayEquals(new byte[] {10, 11, 12}, result.get("f"));
+    }
+
+    @Test
+    public void testGetFileDescriptor() throws Exception {
+        try (ParcelFileDescriptor fd = mRemoteData.getFileDescriptor("f")) {
+            assertNotNull(fd);
+            byte[] data = new byte[(int) fd.getStatSize()];
+            new DataInputStream(new ParcelFileDescriptor.AutoCloseInputStream(fd.dup()))
+                    .readFully(data);
+            assertArrayEquals(new byte[] {10, 11, 12}, data);
+        }
+        assertNull(mRemoteData.getFileDescriptor("a"));
+        assertNull(mRemoteData.getFileDescriptor("e"));
+    }
+
+    @Test
+    public void testGetAsyncSuccess() throws Exception {
+        ResultReceiver<byte[]> receiver = new ResultReceiver<>();
+        mRemoteData.getAsync("b", Runnable::run, receiver);
+        assertArrayEquals(new byte[] {4, 5, 6}, receiver.mResult);
+        assertNull(receiver.mException);
+    }
+
+    @Test
+    public void testGetAllAsyncSuccess() throws Exception {
+        ResultReceiver<Map<String, byte[]>> receiver = new ResultReceiver<>();
+        mRemoteData.getAllAsync(List.of("a", "e"), Runnable::run, receiver);
+        assertEquals(Set.of("a"), receiver.mResult.keySet());
+    }
+
+    @Test
+    public void testGetAsyncError() {
+        ResultReceiver<byte[]> receiver = new ResultReceiver<>();
+        mRemoteData.getAsync("z", Runnable::run, receiver);
+        assertTrue(receiver.mException instanceof OnDevicePersonalizationException);
+    }
+
     @Test
     public void testLookupError() {
         // Triggers an expected error in the mock service.
         assertThrows(OnDevicePersonalizationException.class, () -> mRemoteData.get("z"));
     }
 
+    @Test
+    public void testGetAsyncTimesOut() throws Exception {
+        HangingService service = new HangingService();
+        ImmutableMap remoteData = new RemoteDataImpl(
+                IDataAccessService.Stub.asInterface(service), 100);
+        ResultReceiver<byte[]> receiver = new ResultReceiver<>();
+
+        remoteData.getAsync("a", Runnable::run, receiver);
+
+        assertTrue(receiver.mLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(receiver.mException instanceof OnDevicePersonalizationException);
+        // A result that arrives after the deadline is not delivered.
+        ParcelFileDescriptor fd = RemoteDataService.openFile(new byte[] {1});
+        service.mCallback.onSuccess(createFileResult("a", fd));
+        assertNull(receiver.mResult);
+        assertFalse(fd.getFileDescriptor().valid());
+    }
+
+    @Test
+    public void testLateResultFilesAreClosed() throws Exception {
+        HangingService service = new HangingService();
+        ImmutableMap remoteData = new RemoteDataImpl(
+                IDataAccessService.Stub.asInterface(service), 100);
+        assertThrows(OnDevicePersonalizationException.class, () -> remoteData.get("f"));
+
+        ParcelFileDescriptor fd = RemoteDataService.openFile(new byte[] {1});
+        service.mCallback.onSuccess(createFileResult("f", fd));
+
+        assertFalse(fd.getFileDescriptor().valid());
+    }
+
     @Test
     public void testKeysetSuccess() throws OnDevicePersonalizationException {
         Set<String> expectedResult = new HashSet<>();
@@ -69,13 +168,56 @@ public class RemoteDataTest {
         assertEquals(expectedResult, mRemoteData.keySet());
     }
 
+    private static Bundle createFileResult(String key, ParcelFileDescriptor fd) {
+        Bundle files = new Bundle();
+        files.putParcelable(key, fd);
+        Bundle result = new Bundle();
+        result.putParcelable(
+                Constants.EXTRA_RESULT, new KeyValueParceledListSlice(new HashMap<>()));
+        result.putBundle(Constants.EXTRA_FILE_RESULT, files);
+        return result;
+    }
+
+    static class ResultReceiver<T> implements OutcomeReceiver<T, Exception> {
+        final CountDownLatch mLatch = new CountDownLatch(1);
+        T mResult;
+        Exception mException;
+
+        @Override
+        public void onResult(T result) {
+            mResult = result;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            mException = e;
+            mLatch.countDown();
+        }
+    }
+
+    /** Service that keeps the callback of the last request without answering it. */
+    static class HangingService extends IDataAccessService.Stub {
+        volatile IDataAccessServiceCallback mCallback;
+
+        @Override
+        public void onRequest(
+                int operation,
+                Bundle params,
+                IDataAccessServiceCallback callback) {
+            mCallback = callback;
+        }
+    }
+
     public static class RemoteDataService extends IDataAccessService.Stub {
         HashMap<String, byte[]> mContents = new HashMap<String, byte[]>();
+        HashMap<String, byte[]> mFileContents = new HashMap<String, byte[]>();
 
         public RemoteDataService() {
             mContents.put("a", new byte[] {1, 2, 3});
             mContents.put("b", new byte[] {4, 5, 6});
             mContents.put("c", new byte[] {7, 8, 9});
+            mFileContents.put("f", new byte[] {10, 11, 12});
         }
 
         @Override
@@ -86,8 +228,8 @@ public class RemoteDataTest {
 
             if (operation == Constants.DATA_ACCESS_OP_REMOTE_DATA_KEYSET) {
                 Bundle result = new Bundle();
-                result.putSerializable(Constants.EXTRA_RESULT,
-                        new HashSet<>(mContents.keySet()));
+                result.putParcelable(Constants.EXTRA_RESULT,
+                        new StringParceledListSlice(new ArrayList<>(mContents.keySet())));
                 try {
                     callback.onSuccess(result);
                 } catch (RemoteException e) {
@@ -115,18 +257,37 @@ public class RemoteDataTest {
                 return;
             }
             HashMap<String, byte[]> dict = new HashMap<String, byte[]>();
+            Bundle files = new Bundle();
             for (int i = 0; i < keys.length; ++i) {
                 if (mContents.containsKey(keys[i])) {
                     dict.put(keys[i], mContents.get(keys[i]));
+                } else if (mFileContents.containsKey(keys[i])) {
+                    files.putParcelable(keys[i], openFile(mFileContents.get(keys[i])));
                 }
             }
             Bundle result = new Bundle();
-            result.putSerializable(Constants.EXTRA_RESULT, dict);
+            result.putParcelable(Constants.EXTRA_RESULT, new KeyValueParceledListSlice(dict));
+            result.putBundle(Constants.EXTRA_FILE_RESULT, files);
             try {
                 callback.onSuccess(result);
             } catch (RemoteException e) {
                 // Ignored.
             }
         }
+
+        static ParcelFileDescriptor openFile(byte[] data) {
+            try {
+                File file = File.createTempFile("remotedata", null);
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    out.write(data);
+                }
+                ParcelFileDescriptor fd =
+                        ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+                file.delete();
+                return fd;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.ondevicepersonalization.libraries.plugin.Plugin;
+import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class LoadedPluginCacheTest {
+    private final List<Plugin> mRemoved = new ArrayList<>();
+    private final LoadedPluginCache mCache =
+            new LoadedPluginCache(/* maxSizeKb= */ 100, mRemoved::add);
+
+    @Test
+    public void testGetReturnsCachedPlugin() {
+        Plugin plugin = createPlugin();
+        mCache.put("key1", plugin, 10);
+
+        assertSame(plugin, mCache.get("key1"));
+        assertTrue(mCache.contains(plugin));
+    }
+
+    @Test
+    public void testGetMissingKeyReturnsNull() {
+        mCache.put("key1", createPlugin(), 10);
+
+        assertNull(mCache.get("key2"));
+        assertFalse(mCache.contains(createPlugin()));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOverBudget() {
+        Plugin plugin1 = createPlugin();
+        Plugin plugin2 = createPlugin();
+        Plugin plugin3 = createPlugin();
+        mCache.put("key1", plugin1, 40);
+        mCache.put("key2", plugin2, 40);
+        // Makes key2 the least recently used entry.
+        mCache.get("key1");
+
+        mCache.put("key3", plugin3, 40);
+
+        assertNull(mCache.get("key2"));
+        assertSame(plugin1, mCache.get("key1"));
+        assertSame(plugin3, mCache.get("key3"));
+        assertEquals(List.of(plugin2), mRemoved);
+    }
+
+    @Test
+    public void testResizeEvictsEntries() {
+        Plugin plugin1 = createPlugin();
+        Plugin plugin2 = createPlugin();
+        mCache.put("key1", plugin1, 40);
+        mCache.put("key2", plugin2, 40);
+
+        mCache.resize(50);
+
+        assertEquals(List.of(plugin1), mRemoved);
+        assertSame(plugin2, mCache.get("key2"));
+    }
+
+    @Test
+    public void testReplacingEntryWithSamePluginIsNotReported() {
+        Plugin plugin = createPlugin();
+        mCache.put("key1", plugin, 10);
+        mCache.put("key1", plugin, 10);
+
+        assertTrue(mRemoved.isEmpty());
+    }
+
+    @Test
+    public void testNewKeyForTaskEvictsStaleEntry() {
+        Plugin oldPlugin = createPlugin();
+        Plugin newPlugin = createPlugin();
+        mCache.put("old", oldPlugin, 10);
+        mCache.setKeyForTask("task", "old");
+        mCache.put("new", newPlugin, 10);
+
+        mCache.setKeyForTask("task", "new");
+
+        assertNull(mCache.get("old"));
+        assertSame(newPlugin, mCache.get("new"));
+        assertEquals(List.of(oldPlugin), mRemoved);
+    }
+
+    @Test
+    public void testNewKeyForInstanceOfTaskEvictsStaleEntry() {
+        Plugin oldPlugin = createPlugin();
+        mCache.put("old", oldPlugin, 10);
+        mCache.setKeyForTask(PluginInfo.createInstanceTaskName("task", 1), "old");
+        mCache.put("new", createPlugin(), 10);
+
+        mCache.setKeyForTask(PluginInfo.createInstanceTaskName("task", 2), "new");
+
+        assertNull(mCache.get("old"));
+        assertEquals(List.of(oldPlugin), mRemoved);
+    }
+
+    @Test
+    public void testNewKeyForTaskKeepsEntryUsedByOtherTask() {
+        Plugin oldPlugin = createPlugin();
+        mCache.put("old", oldPlugin, 10);
+        mCache.setKeyForTask("task1", "old");
+        mCache.setKeyForTask("task2", "old");
+        mCache.put("new", createPlugin(), 10);
+
+        mCache.setKeyForTask("task1", "new");
+
+        assertSame(oldPlugin, mCache.get("old"));
+        assertTrue(mRemoved.isEmpty());
+    }
+
+    private static Plugin createPlugin() {
+        return (input, callback, context) -> {};
+    }
+}
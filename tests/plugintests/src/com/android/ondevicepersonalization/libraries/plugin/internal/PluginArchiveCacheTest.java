@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(JUnit4.class)
+public class PluginArchiveCacheTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private File mCacheDir;
+    private File mSourceDir;
+    private File mLegacyDir;
+    private PluginArchiveCache mCache;
+
+    @Before
+    public void setup() {
+        mCacheDir = new File(mContext.getCacheDir(), "PluginArchiveCacheTest");
+        mSourceDir = new File(mContext.getCacheDir(), "PluginArchiveCacheTestSource");
+        mSourceDir.mkdirs();
+        mLegacyDir = new File(mContext.getCacheDir(), "PluginArchiveCacheTestLegacy");
+        mLegacyDir.mkdirs();
+        mCache = new PluginArchiveCache(mCacheDir, mLegacyDir);
+    }
+
+    @After
+    public void cleanup() {
+        deleteDir(mCacheDir);
+        deleteDir(mSourceDir);
+        deleteDir(mLegacyDir);
+    }
+
+    @Test
+    public void testCacheKeyChangesWithUpdate() {
+        assertEquals(
+                PluginArchiveCache.createCacheKey("/data/app/a.apk", 1, 100),
+                PluginArchiveCache.createCacheKey("/data/app/a.apk", 1, 100));
+        assertNotEquals(
+                PluginArchiveCache.createCacheKey("/data/app/a.apk", 1, 100),
+                PluginArchiveCache.createCacheKey("/data/app/a.apk", 2, 100));
+    }
+
+    @Test
+    public void testReusesCachedArchive() throws Exception {
+        File source = createSource("a.apk", 100);
+        File first = mCache.getOrCopy("com.example", source, "key1");
+        assertNotNull(first);
+        first.setLastModified(1000);
+        File second = mCache.getOrCopy("com.example", source, "key1");
+        assertEquals(first, second);
+        assertTrue(second.lastModified() > 1000);
+        assertEquals(1, mCacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testDeletesStaleArchiveOfPackage() throws Exception {
+        File first = mCache.getOrCopy("com.example", createSource("a.apk", 100), "key1");
+        File second = mCache.getOrCopy("com.example", createSource("a.apk", 200), "key2");
+        assertNotNull(second);
+        assertFalse(first.exists());
+        assertEquals(200, second.length());
+    }
+
+    @Test
+    public void testTrimsLeastRecentlyUsedArchives() throws Exception {
+        File oldest = null;
+        for (int i = 0; i < PluginArchiveCache.MAX_ARCHIVES + 1; ++i) {
+            File cached = mCache.getOrCopy("com.example" + i, createSource("a.apk", 10), "key");
+            cached.setLastModified(1000L * (i + 1));
+            if (oldest == null) {
+                oldest = cached;
+            }
+        }
+        assertFalse(oldest.exists());
+        assertEquals(PluginArchiveCache.MAX_ARCHIVES, mCacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testDeletesLegacyArchivesOnFirstUse() throws Exception {
+        File legacyArchive = createFile(mLegacyDir, "com.example.apk", 10);
+        File assetArchive = createFile(mLegacyDir, "plugin.apk", 10);
+        File assetChecksum = createFile(mLegacyDir, "plugin.md5", 10);
+
+        assertNotNull(mCache.getOrCopy("com.example", createSource("a.apk", 10), "key"));
+
+        assertFalse(legacyArchive.exists());
+        assertTrue(assetArchive.exists());
+        assertTrue(assetChecksum.exists());
+    }
+
+    private File createSource(String name, int size) throws IOException {
+        return createFile(mSourceDir, name, size);
+    }
+
+    private static File createFile(File dir, String name, int size) throws IOException {
+        File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        return file;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class PluginExecutionSchedulerTest {
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final PluginExecutionScheduler mScheduler =
+            new PluginExecutionScheduler(mExecutor, /* maxQueuedExecutions= */ 2);
+
+    @Test
+    public void testSerializesExecutionsOfSamePlugin() {
+        List<String> executions = new ArrayList<>();
+        assertTrue(mScheduler.schedule("a", () -> executions.add("a1")));
+        assertTrue(mScheduler.schedule("a", () -> executions.add("a2")));
+        // Only one execution of a plugin is handed to the executor at a time.
+        assertEquals(1, mExecutor.mTasks.size());
+        assertEquals(2, mScheduler.getQueueDepth("a"));
+
+        mExecutor.runAll();
+
+        assertEquals(List.of("a1", "a2"), executions);
+        assertEquals(0, mScheduler.getQueueDepth("a"));
+    }
+
+    @Test
+    public void testRunsDifferentPluginsInParallel() {
+        assertTrue(mScheduler.schedule("a", () -> {}));
+        assertTrue(mScheduler.schedule("b", () -> {}));
+        assertEquals(2, mExecutor.mTasks.size());
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() {
+        assertTrue(mScheduler.schedule("a", () -> {}));
+        assertTrue(mScheduler.schedule("a", () -> {}));
+        assertFalse(mScheduler.schedule("a", () -> {}));
+        assertTrue(mScheduler.schedule("b", () -> {}));
+    }
+
+    @Test
+    public void testTeardownIsNotRejectedWhenQueueIsFull() {
+        List<String> executions = new ArrayList<>();
+        assertTrue(mScheduler.schedule("a", () -> executions.add("a1")));
+        assertTrue(mScheduler.schedule("a", () -> executions.add("a2")));
+        mScheduler.scheduleTeardown("a", () -> executions.add("teardown"));
+
+        mExecutor.runAll();
+
+        assertEquals(List.of("a1", "a2", "teardown"), executions);
+    }
+
+    @Test
+    public void testRunsConcurrentExecutionsUpToLimit() {
+        PluginExecutionScheduler scheduler =
+                new PluginExecutionScheduler(mExecutor, /* maxQueuedExecutions= */ 4);
+        List<String> executions = new ArrayList<>();
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a1")));
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a2")));
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a3")));
+
+        assertEquals(2, mExecutor.mTasks.size());
+        mExecutor.runAll();
+        assertEquals(List.of("a1", "a2", "a3"), executions);
+    }
+
+    @Test
+    public void testTeardownWaitsForRunningExecutions() {
+        PluginExecutionScheduler scheduler =
+                new PluginExecutionScheduler(mExecutor, /* maxQueuedExecutions= */ 4);
+        List<String> executions = new ArrayList<>();
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a1")));
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a2")));
+        scheduler.scheduleTeardown("a", () -> executions.add("teardown"));
+        assertTrue(scheduler.schedule("a", 2, () -> executions.add("a3")));
+
+        // Neither the teardown nor the execution behind it starts until both executions end.
+        assertEquals(2, mExecutor.mTasks.size());
+        mExecutor.mTasks.poll().run();
+        assertEquals(1, mExecutor.mTasks.size());
+        mExecutor.runAll();
+        assertEquals(List.of("a1", "a2", "teardown", "a3"), executions);
+    }
+
+    @Test
+    public void testContinuesAfterFailedExecution() {
+        List<String> executions = new ArrayList<>();
+        mScheduler.schedule("a", () -> {
+            throw new IllegalStateException();
+        });
+        mScheduler.schedule("a", () -> executions.add("a2"));
+
+        mExecutor.runAll();
+
+        assertEquals(List.of("a2"), executions);
+    }
+
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PluginExecutorServiceShardsTest {
+    private final PluginExecutorServiceShards mShards = new PluginExecutorServiceShards(2);
+
+    @Test
+    public void testSpreadsPluginsAcrossShards() {
+        int first = mShards.acquire("a");
+        int second = mShards.acquire("b");
+        assertNotEquals(first, second);
+        assertEquals(1, mShards.getBoundPluginCount(first));
+        assertEquals(1, mShards.getBoundPluginCount(second));
+    }
+
+    @Test
+    public void testKeepsPluginOnItsShard() {
+        int first = mShards.acquire("a");
+        mShards.acquire("b");
+        mShards.release(first);
+        mShards.acquire("c");
+        // "a" stays on its shard even though another shard may now be less loaded.
+        assertEquals(first, mShards.acquire("a"));
+    }
+
+    @Test
+    public void testPicksLeastLoadedShard() {
+        int first = mShards.acquire("a");
+        int second = mShards.acquire("b");
+        mShards.release(second);
+        assertEquals(second, mShards.acquire("c"));
+        assertEquals(1, mShards.getBoundPluginCount(first));
+    }
+
+    @Test
+    public void testHasAtLeastOneShard() {
+        assertEquals(1, new PluginExecutorServiceShards(0).getShardCount());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.ondevicepersonalization.libraries.plugin.FailureType;
+import com.android.ondevicepersonalization.libraries.plugin.Plugin;
+import com.android.ondevicepersonalization.libraries.plugin.PluginCallback;
+import com.android.ondevicepersonalization.libraries.plugin.PluginContext;
+import com.android.ondevicepersonalization.libraries.plugin.PluginHost;
+import com.android.ondevicepersonalization.libraries.plugin.PluginInfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class PluginExecutorTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final List<TestPlugin> mLoadedPlugins = new ArrayList<>();
+    private final TestCallback mCallback = new TestCallback();
+    private File mArchive;
+    private PluginExecutor mPluginExecutor;
+
+    @Before
+    public void setup() throws Exception {
+        mArchive = new File(mContext.getCacheDir(), "PluginExecutorTest.apk");
+        try (FileOutputStream out = new FileOutputStream(mArchive)) {
+            out.write(new byte[2048]);
+        }
+        mPluginExecutor = PluginExecutor.create(mContext, this::loadPlugin, mExecutor);
+    }
+
+    @After
+    public void cleanup() {
+        mArchive.delete();
+    }
+
+    @Test
+    public void testIdsLoadedFromSameArchivesShareInstanceAndLane() throws Exception {
+        // The plugin opts in to running one execution at a time.
+        PluginHost host = new PluginHost() {
+            @Override
+            public int getMaxConcurrentExecutions() {
+                return 1;
+            }
+        };
+        mPluginExecutor.load(createInfo("task1", "checksum"), mCallback, host, null);
+        mPluginExecutor.load(createInfo("task2", "checksum"), mCallback, host, null);
+        assertEquals(1, mLoadedPlugins.size());
+
+        mPluginExecutor.execute(new Bundle(), "task1", mCallback);
+        mPluginExecutor.execute(new Bundle(), "task2", mCallback);
+
+        // Only one execution of the shared instance is handed to the executor at a time.
+        assertEquals(1, mExecutor.mTasks.size());
+        assertEquals(2, mPluginExecutor.getQueueDepth("task1"));
+        mExecutor.runAll();
+        assertEquals(2, mLoadedPlugins.get(0).mExecutions);
+        assertEquals(0, mCallback.mFailures);
+    }
+
+    @Test
+    public void testExecutionsOfInstanceRunConcurrently() throws Exception {
+        mPluginExecutor.load(createInfo("task", "checksum"), mCallback, null, null);
+
+        for (int i = 0; i < PluginHost.DEFAULT_MAX_CONCURRENT_EXECUTIONS + 1; ++i) {
+            mPluginExecutor.execute(new Bundle(), "task", mCallback);
+        }
+
+        assertEquals(PluginHost.DEFAULT_MAX_CONCURRENT_EXECUTIONS, mExecutor.mTasks.size());
+        mExecutor.runAll();
+        assertEquals(PluginHost.DEFAULT_MAX_CONCURRENT_EXECUTIONS + 1,
+                mLoadedPlugins.get(0).mExecutions);
+    }
+
+    @Test
+    public void testUnloadTearsDownAfterQueuedExecutions() throws Exception {
+        mPluginExecutor.load(createInfo("task", null), mCallback, null, null);
+        TestPlugin plugin = mLoadedPlugins.get(0);
+        mPluginExecutor.execute(new Bundle(), "task", mCallback);
+
+        mPluginExecutor.unload("task", mCallback);
+
+        assertFalse(plugin.mUnloaded);
+        mExecutor.runAll();
+        assertEquals(1, plugin.mExecutions);
+        assertTrue(plugin.mUnloaded);
+    }
+
+    @Test
+    public void testCachedInstanceIsNotTornDownOnUnload() throws Exception {
+        mPluginExecutor.load(createInfo("task", "checksum"), mCallback, null, null);
+        mPluginExecutor.unload("task", mCallback);
+        mExecutor.runAll();
+        assertFalse(mLoadedPlugins.get(0).mUnloaded);
+
+        mPluginExecutor.load(createInfo("task", "checksum"), mCallback, null, null);
+
+        assertEquals(1, mLoadedPlugins.size());
+    }
+
+    @Test
+    public void testInstanceEvictedOnLoadIsNotTornDown() throws Exception {
+        // The budget is smaller than the archive, so each instance is evicted as it is cached.
+        PluginHost host = new PluginHost() {
+            @Override
+            public int getLoadedPluginCacheSizeKb() {
+                return 1;
+            }
+        };
+        mPluginExecutor.load(createInfo("task", "checksum"), mCallback, host, null);
+        mExecutor.runAll();
+
+        mPluginExecutor.execute(new Bundle(), "task", mCallback);
+        mExecutor.runAll();
+
+        TestPlugin plugin = mLoadedPlugins.get(0);
+        assertFalse(plugin.mUnloaded);
+        assertEquals(1, plugin.mExecutions);
+    }
+
+    @Test
+    public void testUpdatedArchivesTearDownOldInstance() throws Exception {
+        // Each load creates a new instance of the task under its own id.
+        mPluginExecutor.load(
+                createInfo(PluginInfo.createInstanceTaskName("task", 1), "old"),
+                mCallback, null, null);
+        mPluginExecutor.load(
+                createInfo(PluginInfo.createInstanceTaskName("task", 2), "new"),
+                mCallback, null, null);
+        mExecutor.runAll();
+
+        assertEquals(2, mLoadedPlugins.size());
+        assertTrue(mLoadedPlugins.get(0).mUnloaded);
+        assertFalse(mLoadedPlugins.get(1).mUnloaded);
+    }
+
+    private PluginInfoInternal createInfo(String taskName, String checksum) throws Exception {
+        PluginCode pluginCode =
+                PluginCode.builder()
+                        .setNativeFd(ParcelFileDescriptor.open(
+                                mArchive, ParcelFileDescriptor.MODE_READ_ONLY))
+                        .setNonNativeFd(ParcelFileDescriptor.open(
+                                mArchive, ParcelFileDescriptor.MODE_READ_ONLY))
+                        .setChecksum(checksum != null ? checksum : "")
+                        .build();
+        return PluginInfoInternal.builder()
+                .setTaskName(taskName)
+                .setPluginCodeList(ImmutableList.of(pluginCode))
+                .setEntryPointClassName(TestPlugin.class.getName())
+                .build();
+    }
+
+    private Plugin loadPlugin(
+            String className,
+            ImmutableList<PluginCode> pluginCode,
+            ClassLoader classLoader,
+            ImmutableSet<String> containerClassesAllowlist,
+            ImmutableSet<String> containerPackagesAllowlist) {
+        TestPlugin plugin = new TestPlugin();
+        mLoadedPlugins.add(plugin);
+        return plugin;
+    }
+
+    private static class TestPlugin implements Plugin {
+        int mExecutions = 0;
+        boolean mUnloaded = false;
+
+        @Override
+        public void onExecute(Bundle input, PluginCallback callback, PluginContext context) {
+            if (mUnloaded) {
+                throw new IllegalStateException("Executed after unload");
+            }
+            ++mExecutions;
+        }
+
+        @Override
+        public void onUnload() {
+            mUnloaded = true;
+        }
+    }
+
+    private static class TestCallback implements PluginCallback {
+        int mFailures = 0;
+
+        @Override
+        public void onSuccess(Bundle output) {}
+
+        @Override
+        public void onFailure(FailureType failureType) {
+            ++mFailures;
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.libraries.plugin.internal.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(JUnit4.class)
+public class ApkReaderTest {
+    private static final byte[] DEX1 = "classes.dex contents".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DEX2 = "classes2.dex contents".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testReadsStoredAndDeflatedDexEntries() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            addStoredEntry(zip, "AndroidManifest.xml", new byte[] {1, 2, 3});
+            addStoredEntry(zip, "classes.dex", DEX1);
+            zip.putNextEntry(new ZipEntry("classes2.dex"));
+            zip.write(DEX2);
+            zip.closeEntry();
+        }
+
+        List<ByteBuffer> dexes = ApkReader.readDexEntries(ByteBuffer.wrap(bytes.toByteArray()));
+
+        assertEquals(2, dexes.size());
+        assertArrayEquals(DEX1, toArray(dexes.get(0)));
+        assertArrayEquals(DEX2, toArray(dexes.get(1)));
+    }
+
+    @Test
+    public void testRejectsPathTraversal() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            addStoredEntry(zip, "../classes.dex", DEX1);
+        }
+
+        assertThrows(
+                ZipException.class,
+                () -> ApkReader.readDexEntries(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    private static void addStoredEntry(ZipOutputStream zip, String name, byte[] data)
+            throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}
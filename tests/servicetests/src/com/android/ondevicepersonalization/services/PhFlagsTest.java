@@ -16,8 +16,16 @@
 
 package com.android.ondevicepersonalization.services;
 
+import static com.android.ondevicepersonalization.services.Flags.DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS;
+import static com.android.ondevicepersonalization.services.Flags.DATA_ACCESS_TIMEOUT_MILLIS;
 import static com.android.ondevicepersonalization.services.Flags.GLOBAL_KILL_SWITCH;
+import static com.android.ondevicepersonalization.services.Flags.LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS;
+import static com.android.ondevicepersonalization.services.Flags.LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS;
+import static com.android.ondevicepersonalization.services.PhFlags.KEY_DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS;
+import static com.android.ondevicepersonalization.services.PhFlags.KEY_DATA_ACCESS_TIMEOUT_MILLIS;
 import static com.android.ondevicepersonalization.services.PhFlags.KEY_GLOBAL_KILL_SWITCH;
+import static com.android.ondevicepersonalization.services.PhFlags.KEY_LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS;
+import static com.android.ondevicepersonalization.services.PhFlags.KEY_LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -71,6 +79,78 @@ public class PhFlagsTest {
         assertThat(phFlags.getGlobalKillSwitch()).isEqualTo(phOverridingValue);
     }
 
+    @Test
+    public void testGetDataAccessTimeoutMillis() {
+        // Without any overriding, the value is the hard coded constant.
+        assertThat(FlagsFactory.getFlags().getDataAccessTimeoutMillis())
+                .isEqualTo(DATA_ACCESS_TIMEOUT_MILLIS);
+
+        // Now overriding with the value from PH.
+        final long phOverridingValue = 250;
+        DeviceConfig.setProperty(
+                DeviceConfig.NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                KEY_DATA_ACCESS_TIMEOUT_MILLIS,
+                Long.toString(phOverridingValue),
+                /* makeDefault */ false);
+
+        Flags phFlags = FlagsFactory.getFlags();
+        assertThat(phFlags.getDataAccessTimeoutMillis()).isEqualTo(phOverridingValue);
+    }
+
+    @Test
+    public void testGetLocalDataWriteBehindDelayMillis() {
+        // Without any overriding, the value is the hard coded constant.
+        assertThat(FlagsFactory.getFlags().getLocalDataWriteBehindDelayMillis())
+                .isEqualTo(LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS);
+
+        // Now overriding with the value from PH.
+        final long phOverridingValue = 5000;
+        DeviceConfig.setProperty(
+                DeviceConfig.NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                KEY_LOCAL_DATA_WRITE_BEHIND_DELAY_MILLIS,
+                Long.toString(phOverridingValue),
+                /* makeDefault */ false);
+
+        Flags phFlags = FlagsFactory.getFlags();
+        assertThat(phFlags.getLocalDataWriteBehindDelayMillis()).isEqualTo(phOverridingValue);
+    }
+
+    @Test
+    public void testGetLocalDataWriteBehindMaxPendingKeys() {
+        // Without any overriding, the value is the hard coded constant.
+        assertThat(FlagsFactory.getFlags().getLocalDataWriteBehindMaxPendingKeys())
+                .isEqualTo(LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS);
+
+        // Now overriding with the value from PH.
+        final int phOverridingValue = 32;
+        DeviceConfig.setProperty(
+                DeviceConfig.NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                KEY_LOCAL_DATA_WRITE_BEHIND_MAX_PENDING_KEYS,
+                Integer.toString(phOverridingValue),
+                /* makeDefault */ false);
+
+        Flags phFlags = FlagsFactory.getFlags();
+        assertThat(phFlags.getLocalDataWriteBehindMaxPendingKeys()).isEqualTo(phOverridingValue);
+    }
+
+    @Test
+    public void testGetDatabaseMaintenanceTimeBudgetMillis() {
+        // Without any overriding, the value is the hard coded constant.
+        assertThat(FlagsFactory.getFlags().getDatabaseMaintenanceTimeBudgetMillis())
+                .isEqualTo(DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS);
+
+        // Now overriding with the value from PH.
+        final long phOverridingValue = 5000;
+        DeviceConfig.setProperty(
+                DeviceConfig.NAMESPACE_ON_DEVICE_PERSONALIZATION,
+                KEY_DATABASE_MAINTENANCE_TIME_BUDGET_MILLIS,
+                Long.toString(phOverridingValue),
+                /* makeDefault */ false);
+
+        Flags phFlags = FlagsFactory.getFlags();
+        assertThat(phFlags.getDatabaseMaintenanceTimeBudgetMillis()).isEqualTo(phOverridingValue);
+    }
+
     private void disableGlobalKillSwitch() {
         // Override the global_kill_switch to test other flag values.
         DeviceConfig.setProperty(
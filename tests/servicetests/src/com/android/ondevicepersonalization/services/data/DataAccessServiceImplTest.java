@@ -18,6 +18,7 @@ package com.android.ondevicepersonalization.services.data;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -32,9 +33,12 @@ import android.ondevicepersonalization.SlotResult;
 import android.ondevicepersonalization.aidl.IDataAccessService;
 import android.ondevicepersonalization.aidl.IDataAccessServiceCallback;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 
 import androidx.test.core.app.ApplicationProvider;
 
+import com.android.modules.utils.StringParceledListSlice;
+import com.android.ondevicepersonalization.internal.util.KeyValueParceledListSlice;
 import com.android.ondevicepersonalization.services.data.events.EventUrlHelper;
 import com.android.ondevicepersonalization.services.data.events.EventUrlPayload;
 import com.android.ondevicepersonalization.services.data.vendor.LocalData;
@@ -52,10 +56,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 @RunWith(JUnit4.class)
@@ -102,12 +109,42 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashMap<String, byte[]> data = mResult.getSerializable(
-                Constants.EXTRA_RESULT, HashMap.class);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
         assertNotNull(data);
         assertNotNull(data.get("key"));
     }
 
+    @Test
+    public void testRemoteDataLookupLargeValue() throws Exception {
+        // Large enough to be stored as a file.
+        byte[] largeData = new byte[1024 * 1024];
+        largeData[0] = 1;
+        List<VendorData> dataList = new ArrayList<>();
+        dataList.add(new VendorData.Builder().setKey("key").setData(new byte[10]).build());
+        dataList.add(new VendorData.Builder().setKey("large").setData(largeData).build());
+        mVendorDao.batchUpdateOrInsertVendorDataTransaction(dataList, List.of("key", "large"),
+                System.currentTimeMillis());
+        Bundle params = new Bundle();
+        params.putStringArray(Constants.EXTRA_LOOKUP_KEYS, new String[]{"key", "large"});
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        FileReadingCallback callback = new FileReadingCallback("large");
+        serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_LOOKUP,
+                params,
+                callback);
+        mLatch.await();
+        assertNotNull(mResult);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
+        assertNotNull(data.get("key"));
+        assertFalse(data.containsKey("large"));
+        assertArrayEquals(largeData, callback.mFileData);
+    }
+
     @Test
     public void testLocalDataLookup() throws Exception {
         addTestData();
@@ -123,8 +160,8 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashMap<String, byte[]> data = mResult.getSerializable(
-                Constants.EXTRA_RESULT, HashMap.class);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
         assertNotNull(data);
         assertNotNull(data.get("localkey"));
     }
@@ -143,8 +180,8 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashSet<String> resultSet =
-                mResult.getSerializable(Constants.EXTRA_RESULT, HashSet.class);
+        HashSet<String> resultSet = new HashSet<>(mResult.getParcelable(
+                Constants.EXTRA_RESULT, StringParceledListSlice.class).getList());
         assertNotNull(resultSet);
         assertEquals(2, resultSet.size());
         assertTrue(resultSet.contains("key"));
@@ -165,14 +202,79 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashSet<String> resultSet =
-                mResult.getSerializable(Constants.EXTRA_RESULT, HashSet.class);
+        HashSet<String> resultSet = new HashSet<>(mResult.getParcelable(
+                Constants.EXTRA_RESULT, StringParceledListSlice.class).getList());
         assertNotNull(resultSet);
         assertEquals(2, resultSet.size());
         assertTrue(resultSet.contains("localkey"));
         assertTrue(resultSet.contains("localkey2"));
     }
 
+    @Test
+    public void testRemoteDataScanWithPrefix() throws Exception {
+        addTestData();
+        Bundle params = new Bundle();
+        params.putString(Constants.EXTRA_SCAN_PREFIX, "key");
+        params.putInt(Constants.EXTRA_SCAN_LIMIT, 1);
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN,
+                params,
+                new TestCallback());
+        mLatch.await();
+        assertNotNull(mResult);
+        assertArrayEquals(new String[]{"key"}, mResult.getStringArray(Constants.EXTRA_RESULT));
+        assertEquals("key", mResult.getString(Constants.EXTRA_SCAN_CURSOR));
+
+        mLatch = new CountDownLatch(1);
+        params.putString(Constants.EXTRA_SCAN_CURSOR, "key");
+        serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN,
+                params,
+                new TestCallback());
+        mLatch.await();
+        assertArrayEquals(new String[]{"key2"}, mResult.getStringArray(Constants.EXTRA_RESULT));
+        assertNull(mResult.getString(Constants.EXTRA_SCAN_CURSOR));
+    }
+
+    @Test
+    public void testLocalDataScanWithRange() throws Exception {
+        addTestData();
+        Bundle params = new Bundle();
+        params.putString(Constants.EXTRA_SCAN_START_KEY, "localkey2");
+        params.putInt(Constants.EXTRA_SCAN_LIMIT, 10);
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_SCAN,
+                params,
+                new TestCallback());
+        mLatch.await();
+        assertNotNull(mResult);
+        assertArrayEquals(new String[]{"localkey2"},
+                mResult.getStringArray(Constants.EXTRA_RESULT));
+        assertNull(mResult.getString(Constants.EXTRA_SCAN_CURSOR));
+    }
+
+    @Test
+    public void testScanThrowsInvalidLimit() {
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        Bundle params = new Bundle();
+        params.putInt(Constants.EXTRA_SCAN_LIMIT, Constants.MAX_SCAN_LIMIT + 1);
+        assertThrows(IllegalArgumentException.class, () -> serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_REMOTE_DATA_SCAN,
+                params,
+                new TestCallback()));
+    }
+
     @Test
     public void testLocalDataPut() throws Exception {
         addTestData();
@@ -190,8 +292,8 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashMap<String, byte[]> data = mResult.getSerializable(
-                Constants.EXTRA_RESULT, HashMap.class);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
         assertNotNull(data);
         // Contains previous value
         assertNotNull(data.get("localkey"));
@@ -213,14 +315,62 @@ public class DataAccessServiceImplTest {
                 new TestCallback());
         mLatch.await();
         assertNotNull(mResult);
-        HashMap<String, byte[]> data = mResult.getSerializable(
-                Constants.EXTRA_RESULT, HashMap.class);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
         assertNotNull(data);
         // Contains previous value
         assertNotNull(data.get("localkey"));
         assertNull(mLocalDao.readSingleLocalDataRow("localkey"));
     }
 
+    @Test
+    public void testLocalDataBatch() throws Exception {
+        addTestData();
+        HashMap<String, byte[]> changes = new HashMap<>();
+        changes.put("localkey", null);
+        changes.put("localkey3", new byte[] {1, 2, 3});
+        Bundle batch = new Bundle();
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            batch.putByteArray(change.getKey(), change.getValue());
+        }
+        Bundle params = new Bundle();
+        params.putBundle(Constants.EXTRA_BATCH, batch);
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_BATCH,
+                params,
+                new TestCallback());
+        mLatch.await();
+        assertNotNull(mResult);
+        HashMap<String, byte[]> data = mResult.getParcelable(
+                Constants.EXTRA_RESULT, KeyValueParceledListSlice.class).toMap();
+        // Contains previous values
+        assertNotNull(data.get("localkey"));
+        assertTrue(data.containsKey("localkey3"));
+        assertNull(data.get("localkey3"));
+        assertNull(mLocalDao.readSingleLocalDataRow("localkey"));
+        assertArrayEquals(new byte[] {1, 2, 3}, mLocalDao.readSingleLocalDataRow("localkey3"));
+    }
+
+    @Test
+    public void testLocalDataBatchThrowsOversizedBatch() {
+        DataAccessServiceImpl serviceImpl = new DataAccessServiceImpl(
+                mApplicationContext.getPackageName(), mApplicationContext,
+                true, null, mInjector);
+        IDataAccessService serviceProxy = IDataAccessService.Stub.asInterface(serviceImpl);
+        Bundle batch = new Bundle();
+        batch.putByteArray("localkey", new byte[Constants.MAX_LOCAL_DATA_BATCH_SIZE_BYTES]);
+        Bundle params = new Bundle();
+        params.putBundle(Constants.EXTRA_BATCH, batch);
+        assertThrows(IllegalArgumentException.class, () -> serviceProxy.onRequest(
+                Constants.DATA_ACCESS_OP_LOCAL_DATA_BATCH,
+                params,
+                new TestCallback()));
+    }
+
     @Test
     public void testGetEventUrl() throws Exception {
         Bundle params = new Bundle();
@@ -345,6 +495,29 @@ public class DataAccessServiceImplTest {
         }
     }
 
+    /** Reads a value sent as a file before the service closes its descriptor. */
+    class FileReadingCallback extends TestCallback {
+        private final String mKey;
+        byte[] mFileData;
+
+        FileReadingCallback(String key) {
+            mKey = key;
+        }
+
+        @Override public void onSuccess(Bundle result) {
+            ParcelFileDescriptor fd = result.getBundle(Constants.EXTRA_FILE_RESULT)
+                    .getParcelable(mKey, ParcelFileDescriptor.class);
+            try (DataInputStream in = new DataInputStream(
+                    new ParcelFileDescriptor.AutoCloseInputStream(fd.dup()))) {
+                mFileData = new byte[(int) fd.getStatSize()];
+                in.readFully(mFileData);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            super.onSuccess(result);
+        }
+    }
+
     class TestInjector extends DataAccessServiceImpl.Injector {
         long getTimeMillis() {
             return mTimeMillis;
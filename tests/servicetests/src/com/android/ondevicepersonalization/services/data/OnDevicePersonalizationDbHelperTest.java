@@ -16,19 +16,28 @@
 
 package com.android.ondevicepersonalization.services.data;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.test.core.app.ApplicationProvider;
 
+import com.android.ondevicepersonalization.services.data.events.EventsContract;
+import com.android.ondevicepersonalization.services.data.events.QueriesContract;
+import com.android.ondevicepersonalization.services.data.packages.OdpPackagesContract;
 import com.android.ondevicepersonalization.services.data.user.UserDataTables;
+import com.android.ondevicepersonalization.services.data.vendor.LocalDataContract;
+import com.android.ondevicepersonalization.services.data.vendor.VendorDataContract;
 import com.android.ondevicepersonalization.services.data.vendor.VendorSettingsContract;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -38,25 +47,52 @@ import org.junit.runners.JUnit4;
 public class OnDevicePersonalizationDbHelperTest {
     private final Context mContext = ApplicationProvider.getApplicationContext();
     private OnDevicePersonalizationDbHelper mDbHelper;
+    private OnDevicePersonalizationEventsDbHelper mEventsDbHelper;
+    private OnDevicePersonalizationUserDataDbHelper mUserDataDbHelper;
     private SQLiteDatabase mDb;
 
     @Before
     public void setup() {
         mDbHelper = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        mEventsDbHelper = OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext);
+        mUserDataDbHelper = OnDevicePersonalizationUserDataDbHelper.getInstanceForTest(mContext);
         mDb = mDbHelper.getWritableDatabase();
     }
 
+    @After
+    public void cleanup() {
+        mEventsDbHelper.close();
+        mUserDataDbHelper.close();
+    }
+
     @Test
     public void testOnCreate() {
         mDbHelper.onCreate(mDb);
         assertTrue(hasEntity(VendorSettingsContract.VendorSettingsEntry.TABLE_NAME, "table"));
-        assertTrue(hasEntity(UserDataTables.LocationHistory.TABLE_NAME, "table"));
-        assertTrue(hasEntity(UserDataTables.LocationHistory.INDEX_NAME, "index"));
-        assertTrue(hasEntity(UserDataTables.AppUsageHistory.TABLE_NAME, "table"));
-        assertTrue(hasEntity(
+        assertTrue(hasEntity(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME, "table"));
+        assertTrue(hasEntity(OdpPackagesContract.RegistryStateEntry.TABLE_NAME, "table"));
+        assertFalse(hasEntity(QueriesContract.QueriesEntry.TABLE_NAME, "table"));
+        assertFalse(hasEntity(UserDataTables.LocationHistory.TABLE_NAME, "table"));
+    }
+
+    @Test
+    public void testEventsDbOnCreate() {
+        SQLiteDatabase db = mEventsDbHelper.getWritableDatabase();
+        assertTrue(hasEntity(db, QueriesContract.QueriesEntry.TABLE_NAME, "table"));
+        assertTrue(hasEntity(db, EventsContract.EventsEntry.TABLE_NAME, "table"));
+    }
+
+    @Test
+    public void testUserDataDbOnCreate() {
+        SQLiteDatabase db = mUserDataDbHelper.getWritableDatabase();
+        assertTrue(hasEntity(db, UserDataTables.LocationHistory.TABLE_NAME, "table"));
+        assertTrue(hasEntity(db, UserDataTables.LocationHistory.INDEX_NAME, "index"));
+        assertTrue(hasEntity(db, UserDataTables.AppUsageHistory.TABLE_NAME, "table"));
+        assertTrue(hasEntity(db,
                 UserDataTables.AppUsageHistory.STARTING_TIME_SEC_INDEX_NAME, "index"));
-        assertTrue(hasEntity(UserDataTables.AppUsageHistory.ENDING_TIME_SEC_INDEX_NAME, "index"));
-        assertTrue(hasEntity(
+        assertTrue(hasEntity(db,
+                UserDataTables.AppUsageHistory.ENDING_TIME_SEC_INDEX_NAME, "index"));
+        assertTrue(hasEntity(db,
                 UserDataTables.AppUsageHistory.TOTAL_TIME_USED_SEC_INDEX_NAME, "index"));
     }
 
@@ -65,6 +101,111 @@ public class OnDevicePersonalizationDbHelperTest {
         assertThrows(UnsupportedOperationException.class, () -> mDbHelper.onUpgrade(mDb, 2, 1));
     }
 
+    @Test
+    public void testOnUpgradeAddsVendorDataFileNameColumn() {
+        String tableName = VendorDataContract.VendorDataEntry.TABLE_NAME_PREFIX + "upgrade";
+        mDb.execSQL("CREATE TABLE " + tableName + " ("
+                + VendorDataContract.VendorDataEntry.KEY + " TEXT NOT NULL,"
+                + VendorDataContract.VendorDataEntry.DATA + " BLOB NOT NULL,"
+                + "PRIMARY KEY(" + VendorDataContract.VendorDataEntry.KEY + "))");
+
+        mDbHelper.onUpgrade(mDb, 1, 2);
+
+        assertTrue(hasColumn(tableName, VendorDataContract.VendorDataEntry.FILE_NAME));
+        mDb.execSQL("DROP TABLE " + tableName);
+    }
+
+    @Test
+    public void testOnUpgradeAddsPackageRegistryTables() {
+        mDb.execSQL("DROP TABLE " + OdpPackagesContract.OdpPackagesEntry.TABLE_NAME);
+        mDb.execSQL("DROP TABLE " + OdpPackagesContract.RegistryStateEntry.TABLE_NAME);
+
+        mDbHelper.onUpgrade(mDb, 2, 3);
+
+        assertTrue(hasEntity(OdpPackagesContract.OdpPackagesEntry.TABLE_NAME, "table"));
+        assertTrue(hasEntity(OdpPackagesContract.RegistryStateEntry.TABLE_NAME, "table"));
+    }
+
+    @Test
+    public void testOnUpgradeRebuildsKeyValueTablesWithoutRowid() {
+        String vendorTableName = VendorDataContract.VendorDataEntry.TABLE_NAME_PREFIX + "rebuild";
+        mDb.execSQL("CREATE TABLE " + vendorTableName + " ("
+                + VendorDataContract.VendorDataEntry.KEY + " TEXT NOT NULL,"
+                + VendorDataContract.VendorDataEntry.DATA + " BLOB NOT NULL,"
+                + VendorDataContract.VendorDataEntry.FILE_NAME + " TEXT,"
+                + "PRIMARY KEY(" + VendorDataContract.VendorDataEntry.KEY + "))");
+        mDb.execSQL("INSERT INTO " + vendorTableName + " VALUES ('key', x'01', 'file')");
+        String localTableName = LocalDataContract.LocalDataEntry.TABLE_NAME_PREFIX + "rebuild";
+        mDb.execSQL("CREATE TABLE " + localTableName + " ("
+                + LocalDataContract.LocalDataEntry.KEY + " TEXT NOT NULL,"
+                + LocalDataContract.LocalDataEntry.DATA + " BLOB NOT NULL,"
+                + "PRIMARY KEY(" + LocalDataContract.LocalDataEntry.KEY + "))");
+        mDb.execSQL("INSERT INTO " + localTableName + " VALUES ('key', x'02')");
+
+        mDbHelper.onUpgrade(mDb, 3, 4);
+
+        assertTrue(getCreateStatement(vendorTableName).endsWith("WITHOUT ROWID"));
+        assertTrue(getCreateStatement(localTableName).endsWith("WITHOUT ROWID"));
+        try (Cursor cursor = mDb.rawQuery("SELECT * FROM " + vendorTableName, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("key", cursor.getString(cursor.getColumnIndexOrThrow(
+                    VendorDataContract.VendorDataEntry.KEY)));
+            assertArrayEquals(new byte[]{1}, cursor.getBlob(cursor.getColumnIndexOrThrow(
+                    VendorDataContract.VendorDataEntry.DATA)));
+            assertEquals("file", cursor.getString(cursor.getColumnIndexOrThrow(
+                    VendorDataContract.VendorDataEntry.FILE_NAME)));
+        }
+        try (Cursor cursor = mDb.rawQuery("SELECT * FROM " + localTableName, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertArrayEquals(new byte[]{2}, cursor.getBlob(cursor.getColumnIndexOrThrow(
+                    LocalDataContract.LocalDataEntry.DATA)));
+        }
+        mDb.execSQL("DROP TABLE " + vendorTableName);
+        mDb.execSQL("DROP TABLE " + localTableName);
+    }
+
+    @Test
+    public void testOnUpgradeMovesEventsAndUserDataTables() {
+        mDb.execSQL(QueriesContract.QueriesEntry.CREATE_TABLE_STATEMENT);
+        mDb.execSQL(EventsContract.EventsEntry.CREATE_TABLE_STATEMENT);
+        mDb.execSQL(UserDataTables.LocationHistory.CREATE_TABLE_STATEMENT);
+        mDb.execSQL(UserDataTables.AppUsageHistory.CREATE_TABLE_STATEMENT);
+        ContentValues query = new ContentValues();
+        query.put(QueriesContract.QueriesEntry.QUERY_ID, 7L);
+        query.put(QueriesContract.QueriesEntry.TIME_MILLIS, 1L);
+        query.put(QueriesContract.QueriesEntry.SERVICE_PACKAGE_NAME, "packageName");
+        query.put(QueriesContract.QueriesEntry.QUERY_DATA, new byte[]{1});
+        mDb.insertOrThrow(QueriesContract.QueriesEntry.TABLE_NAME, null, query);
+        ContentValues location = new ContentValues();
+        location.put(UserDataTables.LocationHistory.TIME_SEC, 2L);
+        location.put(UserDataTables.LocationHistory.LATITUDE, "1.5");
+        location.put(UserDataTables.LocationHistory.LONGITUDE, "2.5");
+        location.put(UserDataTables.LocationHistory.SOURCE, 1);
+        location.put(UserDataTables.LocationHistory.IS_PRECISE, true);
+        mDb.insertOrThrow(UserDataTables.LocationHistory.TABLE_NAME, null, location);
+
+        mDbHelper.onUpgrade(mDb, 4, 5);
+
+        assertFalse(hasEntity(QueriesContract.QueriesEntry.TABLE_NAME, "table"));
+        assertFalse(hasEntity(EventsContract.EventsEntry.TABLE_NAME, "table"));
+        assertFalse(hasEntity(UserDataTables.LocationHistory.TABLE_NAME, "table"));
+        assertFalse(hasEntity(UserDataTables.AppUsageHistory.TABLE_NAME, "table"));
+        try (Cursor cursor = mEventsDbHelper.getReadableDatabase().query(
+                QueriesContract.QueriesEntry.TABLE_NAME, null, null, null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(7L, cursor.getLong(cursor.getColumnIndexOrThrow(
+                    QueriesContract.QueriesEntry.QUERY_ID)));
+            assertArrayEquals(new byte[]{1}, cursor.getBlob(cursor.getColumnIndexOrThrow(
+                    QueriesContract.QueriesEntry.QUERY_DATA)));
+        }
+        try (Cursor cursor = mUserDataDbHelper.getReadableDatabase().query(
+                UserDataTables.LocationHistory.TABLE_NAME, null, null, null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("1.5", cursor.getString(cursor.getColumnIndexOrThrow(
+                    UserDataTables.LocationHistory.LATITUDE)));
+        }
+    }
+
     @Test
     public void testGetInstance() {
         OnDevicePersonalizationDbHelper instance1 =
@@ -74,10 +215,34 @@ public class OnDevicePersonalizationDbHelperTest {
         assertEquals(instance1, instance2);
     }
 
+    private String getCreateStatement(String tableName) {
+        try (Cursor cursor = mDb.rawQuery(
+                "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{tableName})) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    private boolean hasColumn(String tableName, String columnName) {
+        try (Cursor cursor = mDb.rawQuery("PRAGMA table_info(" + tableName + ")", null)) {
+            while (cursor.moveToNext()) {
+                if (columnName.equals(cursor.getString(cursor.getColumnIndexOrThrow("name")))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private boolean hasEntity(String entityName, String type) {
+        return hasEntity(mDb, entityName, type);
+    }
+
+    private static boolean hasEntity(SQLiteDatabase db, String entityName, String type) {
         String query = "select DISTINCT name from sqlite_master where name = '"
                 + entityName + "' and type = '" + type + "'";
-        Cursor cursor = mDb.rawQuery(query, null);
+        Cursor cursor = db.rawQuery(query, null);
         if (cursor != null) {
             if (cursor.getCount() > 0) {
                 cursor.close();
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SqlStatementCacheTest {
+    private static final String TABLE_NAME = "statement_cache_test";
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private final SqlStatementCache mCache = new SqlStatementCache(/* maxSize= */ 1);
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setup() {
+        mDb = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext).getWritableDatabase();
+        mDb.execSQL("CREATE TABLE " + TABLE_NAME
+                + " (k TEXT PRIMARY KEY, v BLOB, n INTEGER, b INTEGER)");
+    }
+
+    @Test
+    public void testCreateInsertSql() {
+        assertEquals("INSERT OR REPLACE INTO t (a,b) VALUES (?,?)",
+                SqlStatementCache.createInsertSql("t", /* orReplace= */ true, "a", "b"));
+        assertEquals("INSERT INTO t (a) VALUES (?)",
+                SqlStatementCache.createInsertSql("t", /* orReplace= */ false, "a"));
+    }
+
+    @Test
+    public void testStatementsReusedWithNewArguments() {
+        String insertSql = SqlStatementCache.createInsertSql(TABLE_NAME, /* orReplace= */ true,
+                "k", "v", "n", "b");
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key", new byte[] {1}, 5L, true));
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key", null, 6, false));
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key2", new byte[] {2}, 7, true));
+
+        try (Cursor cursor = mDb.rawQuery(
+                "SELECT k, v, n, b FROM " + TABLE_NAME + " ORDER BY k", null)) {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToNext();
+            assertEquals("key", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+            assertEquals(6, cursor.getLong(2));
+            assertEquals(0, cursor.getLong(3));
+            cursor.moveToNext();
+            assertArrayEquals(new byte[] {2}, cursor.getBlob(1));
+            assertEquals(1, cursor.getLong(3));
+        }
+
+        // Evicts the insert statement from the cache of size 1.
+        String deleteSql = "DELETE FROM " + TABLE_NAME + " WHERE k = ?";
+        assertEquals(1, mCache.executeUpdateDelete(mDb, deleteSql, "key"));
+        assertEquals(0, mCache.executeUpdateDelete(mDb, deleteSql, "key"));
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key3", null, 8, true));
+    }
+
+    @Test
+    public void testExecutionDoesNotBlockOtherThreads() throws Exception {
+        String insertSql = SqlStatementCache.createInsertSql(TABLE_NAME, /* orReplace= */ true,
+                "k", "v", "n", "b");
+        mDb.beginTransaction();
+        Thread writer;
+        try {
+            assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key", null, 1, true));
+            // Waits for the transaction of this thread while it executes.
+            writer = new Thread(() -> mCache.executeInsert(mDb, insertSql, "key2", null, 2, true));
+            writer.start();
+            Thread.sleep(100);
+
+            assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key3", null, 3, true));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        writer.join(5000);
+
+        assertFalse(writer.isAlive());
+        try (Cursor cursor = mDb.rawQuery("SELECT k FROM " + TABLE_NAME, null)) {
+            assertEquals(3, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void testExecutesAfterClear() {
+        String insertSql = SqlStatementCache.createInsertSql(TABLE_NAME, /* orReplace= */ true,
+                "k", "v", "n", "b");
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key", null, 1, true));
+        mCache.clear();
+        assertNotEquals(-1, mCache.executeInsert(mDb, insertSql, "key", null, 2, true));
+    }
+
+    @After
+    public void cleanup() {
+        mCache.clear();
+        OnDevicePersonalizationDbHelper dbHelper =
+                OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        dbHelper.getWritableDatabase().close();
+        dbHelper.getReadableDatabase().close();
+        dbHelper.close();
+    }
+}
@@ -22,7 +22,7 @@ import android.content.Context;
 
 import androidx.test.core.app.ApplicationProvider;
 
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationEventsDbHelper;
 
 import org.junit.After;
 import org.junit.Before;
@@ -61,8 +61,8 @@ public class EventsDaoTest {
 
     @After
     public void cleanup() {
-        OnDevicePersonalizationDbHelper dbHelper =
-                OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        OnDevicePersonalizationEventsDbHelper dbHelper =
+                OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext);
         dbHelper.getWritableDatabase().close();
         dbHelper.getReadableDatabase().close();
         dbHelper.close();
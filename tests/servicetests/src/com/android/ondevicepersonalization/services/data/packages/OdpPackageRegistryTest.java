@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.data.packages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.util.PackageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.MockitoSession;
+import org.mockito.quality.Strictness;
+
+@RunWith(JUnit4.class)
+public class OdpPackageRegistryTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private OnDevicePersonalizationDbHelper mDbHelper;
+
+    @Before
+    public void setup() {
+        mDbHelper = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+    }
+
+    @Test
+    public void testContainsPackageWithOdpSettings() throws Exception {
+        OdpPackageRegistry registry = new OdpPackageRegistry(mContext, mDbHelper);
+        OdpPackage odpPackage = registry.getOdpPackage(mContext.getPackageName());
+
+        assertNotNull(odpPackage);
+        assertEquals(PackageUtils.getCertDigest(mContext, mContext.getPackageName()),
+                odpPackage.getCertDigest());
+        assertEquals(mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0)
+                .lastUpdateTime, odpPackage.getLastUpdateTime());
+        assertNotNull(odpPackage.getDownloadUrl());
+        assertEquals(1, registry.getFullScanCount());
+    }
+
+    @Test
+    public void testLoadsPersistedPackagesWithoutScan() {
+        OdpPackageRegistry registry = new OdpPackageRegistry(mContext, mDbHelper);
+        int packageCount = registry.getOdpPackages().size();
+
+        OdpPackageRegistry reloaded = new OdpPackageRegistry(mContext, mDbHelper);
+        assertEquals(packageCount, reloaded.getOdpPackages().size());
+        assertNotNull(reloaded.getOdpPackage(mContext.getPackageName()));
+        assertEquals(0, reloaded.getFullScanCount());
+    }
+
+    @Test
+    public void testPackageChangeRefreshesPackage() {
+        OdpPackageRegistry registry = new OdpPackageRegistry(mContext, mDbHelper);
+        registry.getOdpPackages();
+
+        registry.onPackageChanged("com.example.notinstalled");
+        registry.onPackageChanged(mContext.getPackageName());
+
+        assertNull(registry.getOdpPackage("com.example.notinstalled"));
+        assertNotNull(registry.getOdpPackage(mContext.getPackageName()));
+        assertEquals(1, registry.getFullScanCount());
+    }
+
+    @Test
+    public void testPackageWithoutCertDigestIsRetried() {
+        OdpPackageRegistry registry = new OdpPackageRegistry(mContext, mDbHelper);
+        MockitoSession session = ExtendedMockito.mockitoSession().spyStatic(
+                PackageUtils.class).strictness(Strictness.LENIENT).startMocking();
+        try {
+            ExtendedMockito.doThrow(new PackageManager.NameNotFoundException()).when(
+                    () -> PackageUtils.getCertDigest(any(), any()));
+            assertNull(registry.getOdpPackage(mContext.getPackageName()));
+        } finally {
+            session.finishMocking();
+        }
+
+        // Neither the package nor the registry state were persisted, so a new registry scans.
+        OdpPackageRegistry reloaded = new OdpPackageRegistry(mContext, mDbHelper);
+        assertNotNull(reloaded.getOdpPackage(mContext.getPackageName()));
+        assertEquals(1, reloaded.getFullScanCount());
+        assertNotNull(registry.getOdpPackage(mContext.getPackageName()));
+    }
+
+    @After
+    public void cleanup() {
+        mDbHelper.getWritableDatabase().close();
+        mDbHelper.getReadableDatabase().close();
+        mDbHelper.close();
+    }
+}
@@ -34,7 +34,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.android.dx.mockito.inline.extended.ExtendedMockito;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationUserDataDbHelper;
 
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -95,8 +95,8 @@ public class UserDataCollectionJobServiceTest {
         mUserDataCollector.clearUserData(RawUserData.getInstance());
         mUserDataCollector.clearMetadata();
         mUserDataCollector.clearDatabase();
-        OnDevicePersonalizationDbHelper dbHelper =
-                OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        OnDevicePersonalizationUserDataDbHelper dbHelper =
+                OnDevicePersonalizationUserDataDbHelper.getInstanceForTest(mContext);
         dbHelper.getWritableDatabase().close();
         dbHelper.getReadableDatabase().close();
         dbHelper.close();
@@ -27,7 +27,7 @@ import android.database.Cursor;
 
 import androidx.test.core.app.ApplicationProvider;
 
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationUserDataDbHelper;
 
 import org.junit.After;
 import org.junit.Before;
@@ -152,8 +152,8 @@ public class UserDataDaoTest {
 
     @After
     public void cleanup() {
-        OnDevicePersonalizationDbHelper dbHelper =
-                OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        OnDevicePersonalizationUserDataDbHelper dbHelper =
+                OnDevicePersonalizationUserDataDbHelper.getInstanceForTest(mContext);
         dbHelper.getWritableDatabase().close();
         dbHelper.getReadableDatabase().close();
         dbHelper.close();
@@ -39,7 +39,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.android.dx.mockito.inline.extended.ExtendedMockito;
 import com.android.ondevicepersonalization.services.OnDevicePersonalizationExecutors;
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationEventsDbHelper;
 import com.android.ondevicepersonalization.services.data.events.Event;
 import com.android.ondevicepersonalization.services.data.events.EventType;
 import com.android.ondevicepersonalization.services.data.events.EventUrlHelper;
@@ -96,13 +96,13 @@ public class OdpWebViewClientTests {
             .setQueryData("query".getBytes(StandardCharsets.UTF_8))
             .build();
     private EventsDao mDao;
-    private OnDevicePersonalizationDbHelper mDbHelper;
+    private OnDevicePersonalizationEventsDbHelper mDbHelper;
     private OdpWebView mWebView;
     private String mOpenedUrl;
 
     @Before
     public void setup() throws Exception {
-        mDbHelper = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        mDbHelper = OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext);
         mDao = EventsDao.getInstanceForTest(mContext);
         // Insert query for FK constraint
         mDao.insertQuery(mTestQuery);
@@ -117,8 +117,8 @@ public class OdpWebViewClientTests {
 
     @After
     public void cleanup() {
-        OnDevicePersonalizationDbHelper dbHelper =
-                OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        OnDevicePersonalizationEventsDbHelper dbHelper =
+                OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext);
         dbHelper.getWritableDatabase().close();
         dbHelper.getReadableDatabase().close();
         dbHelper.close();
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.ondevicepersonalization.services.data.vendor.VendorData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class StagedVendorDataTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private StagedVendorData mStagedData;
+
+    @Before
+    public void setup() throws Exception {
+        mStagedData = StagedVendorData.create(mContext.getCacheDir());
+    }
+
+    @Test
+    public void testGetKeysAndValues() throws Exception {
+        mStagedData.add("key1", bytes("value1"));
+        mStagedData.add("key2", bytes("value2"));
+        mStagedData.add("key3", bytes("value3"));
+        mStagedData.finishStaging();
+
+        assertEquals(3, mStagedData.size());
+        assertEquals(List.of("key1", "key2", "key3"), mStagedData.getKeys());
+        List<byte[]> values = mStagedData.getValues();
+        assertEquals(3, values.size());
+        // Reads out of order restart from the beginning of the file.
+        assertArrayEquals(bytes("value2"), values.get(1));
+        assertArrayEquals(bytes("value1"), values.get(0));
+        assertArrayEquals(bytes("value1"), values.get(0));
+        assertArrayEquals(bytes("value3"), values.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> values.get(3));
+    }
+
+    @Test
+    public void testRepeatedKeyKeepsLastValue() throws Exception {
+        mStagedData.add("key1", bytes("old"));
+        mStagedData.add("key2", bytes("value2"));
+        mStagedData.add("key1", bytes("new"));
+        mStagedData.finishStaging();
+
+        assertEquals(2, mStagedData.size());
+        assertEquals(List.of("key2", "key1"), mStagedData.getKeys());
+        assertArrayEquals(bytes("value2"), mStagedData.getValues().get(0));
+        assertArrayEquals(bytes("new"), mStagedData.getValues().get(1));
+    }
+
+    @Test
+    public void testIteratorReturnsSelectedKeys() throws Exception {
+        mStagedData.add("key1", bytes("value1"));
+        mStagedData.add("key2", bytes("value2"));
+        mStagedData.add("key3", bytes("value3"));
+        mStagedData.finishStaging();
+
+        List<VendorData> selected = new ArrayList<>();
+        Iterator<VendorData> iterator = mStagedData.iterator(Set.of("key1", "key3", "missing"));
+        while (iterator.hasNext()) {
+            selected.add(iterator.next());
+        }
+
+        assertEquals(2, selected.size());
+        assertEquals("key1", selected.get(0).getKey());
+        assertArrayEquals(bytes("value1"), selected.get(0).getData());
+        assertEquals("key3", selected.get(1).getKey());
+        assertArrayEquals(bytes("value3"), selected.get(1).getData());
+    }
+
+    @Test
+    public void testReadBeforeFinishThrows() throws Exception {
+        mStagedData.add("key1", bytes("value1"));
+        assertThrows(IllegalStateException.class, () -> mStagedData.getKeys());
+    }
+
+    @Test
+    public void testCloseDeletesFile() throws Exception {
+        mStagedData.add("key1", bytes("value1"));
+        mStagedData.finishStaging();
+        mStagedData.close();
+
+        File[] staged = mContext.getCacheDir().listFiles(
+                (dir, name) -> name.startsWith("vendor_data_") && name.endsWith(".staged"));
+        assertEquals(0, staged.length);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void cleanup() {
+        mStagedData.close();
+    }
+}
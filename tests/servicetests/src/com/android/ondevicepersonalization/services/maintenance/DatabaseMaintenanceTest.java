@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.maintenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class DatabaseMaintenanceTest {
+    private static final String TABLE_NAME = "maintenance_test";
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private OnDevicePersonalizationDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setup() {
+        mDbHelper = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        mDb.execSQL("CREATE TABLE " + TABLE_NAME + " (data BLOB)");
+        ContentValues values = new ContentValues();
+        values.put("data", new byte[4096]);
+        for (int i = 0; i < 100; i++) {
+            mDb.insert(TABLE_NAME, null, values);
+        }
+        mDb.delete(TABLE_NAME, null, null);
+    }
+
+    @Test
+    public void testRunReclaimsFreePages() {
+        assertTrue(getLong("PRAGMA freelist_count") > 0);
+
+        assertTrue(DatabaseMaintenance.run(List.of(mDbHelper), /* timeBudgetMillis= */ 60_000));
+
+        assertEquals(0, getLong("PRAGMA freelist_count"));
+        assertEquals(2, getLong("PRAGMA auto_vacuum"));
+    }
+
+    @Test
+    public void testRunStopsWhenBudgetIsSpent() {
+        long freePages = getLong("PRAGMA freelist_count");
+
+        assertFalse(DatabaseMaintenance.run(List.of(mDbHelper), /* timeBudgetMillis= */ 0));
+
+        assertEquals(freePages, getLong("PRAGMA freelist_count"));
+    }
+
+    @After
+    public void cleanup() {
+        mDb.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        mDbHelper.getWritableDatabase().close();
+        mDbHelper.getReadableDatabase().close();
+        mDbHelper.close();
+    }
+
+    private long getLong(String sql) {
+        try (Cursor cursor = mDb.rawQuery(sql, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
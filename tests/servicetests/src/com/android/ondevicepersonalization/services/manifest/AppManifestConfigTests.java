@@ -18,6 +18,9 @@ package com.android.ondevicepersonalization.services.manifest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
@@ -56,6 +59,32 @@ public class AppManifestConfigTests {
         assertEquals("com.test.TestPersonalizationService", config.getServiceName());
     }
 
+    @Test
+    public void testGetAppManifestConfigIsCached() {
+        String packageName = mContext.getPackageName();
+        AppManifestConfig config = AppManifestConfigHelper.getAppManifestConfig(
+                mContext, packageName);
+        assertSame(config, AppManifestConfigHelper.getAppManifestConfig(mContext, packageName));
+
+        AppManifestConfigCache.getInstance(mContext).onPackageChanged(packageName);
+        AppManifestConfig reparsed = AppManifestConfigHelper.getAppManifestConfig(
+                mContext, packageName);
+        assertNotSame(config, reparsed);
+        assertEquals(config.getDownloadUrl(), reparsed.getDownloadUrl());
+        assertEquals(config.getServiceName(), reparsed.getServiceName());
+    }
+
+    @Test
+    public void testAppManifestConfigCacheChecksLastUpdateTime() {
+        AppManifestConfigCache cache = new AppManifestConfigCache();
+        AppManifestConfig config = new AppManifestConfig("url", "service");
+        cache.put("pkg", 1L, config);
+        assertSame(config, cache.get("pkg", 1L));
+        assertNull(cache.get("pkg", 2L));
+        cache.clear();
+        assertNull(cache.get("pkg", 1L));
+    }
+
     @Test
     public void testAppManifestConfigBadPackage() {
         assertThrows(IllegalArgumentException.class,
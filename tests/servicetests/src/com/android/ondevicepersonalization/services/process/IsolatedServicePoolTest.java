@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.ondevicepersonalization.libraries.plugin.PluginController;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class IsolatedServicePoolTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private TestInjector mInjector;
+    private IsolatedServicePool mPool;
+
+    @Before
+    public void setup() {
+        mInjector = new TestInjector();
+        mPool = new IsolatedServicePool(mContext, mInjector);
+    }
+
+    @Test
+    public void testReusesLoadedService() throws Exception {
+        IsolatedServiceInfo first = mPool.getIsolatedService("task", "com.example").get();
+        IsolatedServiceInfo second = mPool.getIsolatedService("task", "com.example").get();
+        assertSame(first, second);
+        assertEquals(1, mInjector.mLoadCount);
+        assertEquals(1, mPool.size());
+    }
+
+    @Test
+    public void testSeparateEntriesPerTask() throws Exception {
+        IsolatedServiceInfo first = mPool.getIsolatedService("task1", "com.example").get();
+        IsolatedServiceInfo second = mPool.getIsolatedService("task2", "com.example").get();
+        assertNotSame(first, second);
+        assertEquals(2, mInjector.mLoadCount);
+    }
+
+    @Test
+    public void testReloadsWhenPluginNoLongerLoaded() throws Exception {
+        IsolatedServiceInfo first = mPool.getIsolatedService("task", "com.example").get();
+        mInjector.mIsLoaded = false;
+        IsolatedServiceInfo second = mPool.getIsolatedService("task", "com.example").get();
+        assertNotSame(first, second);
+        assertEquals(2, mInjector.mLoadCount);
+        assertEquals(1, mInjector.mUnloaded.size());
+        assertSame(first, mInjector.mUnloaded.get(0));
+    }
+
+    @Test
+    public void testPackageChangeUnloadsService() throws Exception {
+        IsolatedServiceInfo first = mPool.getIsolatedService("task", "com.example").get();
+        mPool.getIsolatedService("task", "com.other").get();
+        mPool.onPackageChanged("com.example");
+        assertEquals(1, mPool.size());
+        assertEquals(1, mInjector.mUnloaded.size());
+        assertSame(first, mInjector.mUnloaded.get(0));
+    }
+
+    @Test
+    public void testEvictsIdleService() throws Exception {
+        mPool.getIsolatedService("task", "com.example").get();
+        mInjector.mTime += IsolatedServicePool.IDLE_TIMEOUT_MILLIS / 2;
+        mPool.getIsolatedService("task", "com.other").get();
+        mInjector.mTime += IsolatedServicePool.IDLE_TIMEOUT_MILLIS / 2;
+        mPool.evictIdleServices();
+        assertEquals(1, mPool.size());
+        assertEquals(1, mInjector.mUnloaded.size());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        mInjector.mFailLoad = true;
+        try {
+            mPool.getIsolatedService("task", "com.example").get();
+        } catch (Exception e) {
+            // Expected.
+        }
+        assertEquals(0, mPool.size());
+        mInjector.mFailLoad = false;
+        mPool.getIsolatedService("task", "com.example").get();
+        assertEquals(2, mInjector.mLoadCount);
+    }
+
+    class TestInjector extends IsolatedServicePool.Injector {
+        long mTime = 0;
+        int mLoadCount = 0;
+        boolean mIsLoaded = true;
+        boolean mFailLoad = false;
+        List<IsolatedServiceInfo> mUnloaded = new ArrayList<>();
+
+        @Override long getElapsedRealtime() {
+            return mTime;
+        }
+
+        @Override String getCertDigest(Context context, String packageName) {
+            return "digest";
+        }
+
+        @Override ListenableFuture<IsolatedServiceInfo> loadIsolatedService(
+                String pluginId, String packageName, Context context) {
+            ++mLoadCount;
+            if (mFailLoad) {
+                return Futures.immediateFailedFuture(new IllegalStateException());
+            }
+            return Futures.immediateFuture(
+                    new IsolatedServiceInfo(mock(PluginController.class)));
+        }
+
+        @Override ListenableFuture<Boolean> isIsolatedServiceLoaded(IsolatedServiceInfo info) {
+            return Futures.immediateFuture(mIsLoaded);
+        }
+
+        @Override void unloadIsolatedService(IsolatedServiceInfo info) {
+            mUnloaded.add(info);
+        }
+
+        @Override void scheduleEviction(Runnable runnable, long delayMillis) {}
+
+        @Override ListeningExecutorService getExecutor() {
+            return MoreExecutors.newDirectExecutorService();
+        }
+    }
+}
@@ -25,7 +25,7 @@ import android.os.PersistableBundle;
 
 import androidx.test.core.app.ApplicationProvider;
 
-import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationDbHelper;
+import com.android.ondevicepersonalization.services.data.OnDevicePersonalizationEventsDbHelper;
 import com.android.ondevicepersonalization.services.data.events.EventsDao;
 import com.android.ondevicepersonalization.services.data.events.QueriesContract;
 
@@ -44,7 +44,7 @@ import java.util.concurrent.CountDownLatch;
 public class AppRequestFlowTest {
     private final Context mContext = ApplicationProvider.getApplicationContext();
     private final CountDownLatch mLatch = new CountDownLatch(1);
-    private OnDevicePersonalizationDbHelper mDbHelper;
+    private OnDevicePersonalizationEventsDbHelper mDbHelper;
 
     private String mRenderedContent;
     private boolean mGenerateHtmlCalled;
@@ -55,7 +55,7 @@ public class AppRequestFlowTest {
 
     @Before
     public void setup() {
-        mDbHelper = OnDevicePersonalizationDbHelper.getInstanceForTest(mContext);
+        mDbHelper = OnDevicePersonalizationEventsDbHelper.getInstanceForTest(mContext);
         EventsDao.getInstanceForTest(mContext);
     }
 
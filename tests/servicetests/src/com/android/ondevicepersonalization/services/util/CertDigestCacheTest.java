@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ondevicepersonalization.services.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CertDigestCacheTest {
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+
+    @After
+    public void cleanup() {
+        CertDigestCache.getInstance(mContext).clear();
+    }
+
+    @Test
+    public void testGetCertDigestIsCached() throws Exception {
+        String packageName = mContext.getPackageName();
+        String certDigest = PackageUtils.getCertDigest(mContext, packageName);
+        assertEquals(certDigest, CertDigestCache.getInstance(mContext).get(packageName));
+        assertEquals(certDigest, PackageUtils.getCertDigest(mContext, packageName));
+    }
+
+    @Test
+    public void testPackageChangeDropsDigest() {
+        CertDigestCache cache = new CertDigestCache();
+        cache.put("pkg1", "digest1", cache.getGeneration());
+        cache.put("pkg2", "digest2", cache.getGeneration());
+        cache.onPackageChanged("pkg1");
+        assertNull(cache.get("pkg1"));
+        assertEquals("digest2", cache.get("pkg2"));
+    }
+
+    @Test
+    public void testDigestComputedDuringPackageChangeIsNotCached() {
+        CertDigestCache cache = new CertDigestCache();
+        long generation = cache.getGeneration();
+        cache.onPackageChanged("pkg");
+        cache.put("pkg", "staleDigest", generation);
+        assertNull(cache.get("pkg"));
+    }
+}